@@ -0,0 +1,318 @@
+package gr.uoa.di.madgik.elastic;
+
+import gr.uoa.di.madgik.elastic.sql.ColumnInfo;
+import gr.uoa.di.madgik.elastic.sql.ColumnVector;
+import gr.uoa.di.madgik.elastic.sql.StringVector;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.vector.BigIntVector;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.DateDayVector;
+import org.apache.arrow.vector.DecimalVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.Float4Vector;
+import org.apache.arrow.vector.Float8Vector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.SmallIntVector;
+import org.apache.arrow.vector.TimeStampMilliTZVector;
+import org.apache.arrow.vector.TimeStampNanoTZVector;
+import org.apache.arrow.vector.TinyIntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.ipc.ArrowReader;
+import org.apache.arrow.vector.types.DateUnit;
+import org.apache.arrow.vector.types.FloatingPointPrecision;
+import org.apache.arrow.vector.types.TimeUnit;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the results of a query as Apache Arrow record batches, one batch per
+ * page of the cursor. Values are copied from the column vectors the page was
+ * decoded into straight into the Arrow vectors, without going through
+ * {@code getObject} or boxing.
+ * <p>
+ * Being an {@link ArrowReader}, it can be handed to the Arrow IPC writers or
+ * exported through the C data interface, e.g. to pandas or Polars. The
+ * {@link VectorSchemaRoot} is reused: each call to {@link #loadNextBatch()}
+ * replaces its contents with the next page.
+ * <p>
+ * Arrow is an optional dependency of the driver: applications using this
+ * class provide {@code arrow-vector} and one of the Arrow memory modules.
+ */
+public class ArrowResultSetReader extends ArrowReader {
+
+    private final JdbcResultSet resultSet;
+    private final List<ColumnInfo> columns;
+    private long bytesRead;
+
+    /**
+     * The reader takes over the result set, which should not be read
+     * otherwise, and closes it when it is closed. Rows before the current
+     * one are not exported.
+     *
+     * @param resultSet a result set of this driver
+     * @param allocator the allocator of the Arrow vectors
+     * @throws SQLException if the result set is not a result set of this driver
+     */
+    public ArrowResultSetReader(ResultSet resultSet, BufferAllocator allocator) throws SQLException {
+        super(allocator);
+        this.resultSet = resultSet.unwrap(JdbcResultSet.class);
+        this.columns = this.resultSet.getColumns();
+    }
+
+    /**
+     * Maps the type of a column to an Arrow type. Columns of types without a
+     * lossless Arrow counterpart, e.g. geo shapes or objects, are exported as
+     * strings.
+     *
+     * @param column the column
+     * @return the field of the column
+     */
+    static Field field(ColumnInfo column) {
+        ArrowType type;
+        switch (column.getType() == null ? "" : column.getType()) {
+            case "long":
+                type = new ArrowType.Int(64, true);
+                break;
+            case "integer":
+                type = new ArrowType.Int(32, true);
+                break;
+            case "short":
+                type = new ArrowType.Int(16, true);
+                break;
+            case "byte":
+                type = new ArrowType.Int(8, true);
+                break;
+            case "double":
+            case "scaled_float":
+                type = new ArrowType.FloatingPoint(FloatingPointPrecision.DOUBLE);
+                break;
+            case "float":
+            case "half_float":
+                type = new ArrowType.FloatingPoint(FloatingPointPrecision.SINGLE);
+                break;
+            case "unsigned_long":
+                type = new ArrowType.Decimal(20, 0, 128);
+                break;
+            case "boolean":
+                type = ArrowType.Bool.INSTANCE;
+                break;
+            case "date":
+                type = new ArrowType.Date(DateUnit.DAY);
+                break;
+            case "datetime":
+                type = new ArrowType.Timestamp(TimeUnit.MILLISECOND, "UTC");
+                break;
+            case "date_nanos":
+                type = new ArrowType.Timestamp(TimeUnit.NANOSECOND, "UTC");
+                break;
+            default:
+                type = ArrowType.Utf8.INSTANCE;
+        }
+        return new Field(column.getName(), FieldType.nullable(type), null);
+    }
+
+    @Override
+    protected Schema readSchema() {
+        List<Field> fields = new ArrayList<>(columns.size());
+        for (ColumnInfo column : columns) {
+            fields.add(field(column));
+        }
+        return new Schema(fields);
+    }
+
+    /**
+     * Loads the rows after the current one, up to the end of their page,
+     * fetching the next page if the current one has been consumed.
+     *
+     * @return false if there are no more rows
+     * @throws IOException if the next page could not be fetched or a value does not fit the type of its column
+     */
+    @Override
+    public boolean loadNextBatch() throws IOException {
+        prepareLoadNextBatch();
+        VectorSchemaRoot root = getVectorSchemaRoot();
+        try {
+            ColumnBatch batch = resultSet.nextBatch(Integer.MAX_VALUE);
+            if (batch == null) {
+                return false;
+            }
+            int rows = batch.getRowCount();
+            for (int i = 0; i < columns.size(); i++) {
+                FieldVector target = root.getVector(i);
+                target.setInitialCapacity(rows);
+                target.allocateNew();
+                copy(batch.getVector(i + 1), batch.getOffset(), rows, target);
+                target.setValueCount(rows);
+                bytesRead += target.getBufferSize();
+            }
+            root.setRowCount(rows);
+            return true;
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Copies rows of a column vector of the driver into an Arrow vector of
+     * the type given by {@link #field(ColumnInfo)}. Null rows are left unset,
+     * which Arrow reads as null.
+     */
+    private static void copy(ColumnVector source, int offset, int rows, FieldVector target) throws SQLException {
+        switch (target.getMinorType()) {
+            case BIGINT: {
+                BigIntVector vector = (BigIntVector) target;
+                for (int row = 0; row < rows; row++) {
+                    if (!source.isNull(offset + row)) {
+                        vector.set(row, source.getLong(offset + row));
+                    }
+                }
+                break;
+            }
+            case INT: {
+                IntVector vector = (IntVector) target;
+                for (int row = 0; row < rows; row++) {
+                    if (!source.isNull(offset + row)) {
+                        vector.set(row, source.getInt(offset + row));
+                    }
+                }
+                break;
+            }
+            case SMALLINT: {
+                SmallIntVector vector = (SmallIntVector) target;
+                for (int row = 0; row < rows; row++) {
+                    if (!source.isNull(offset + row)) {
+                        vector.set(row, source.getShort(offset + row));
+                    }
+                }
+                break;
+            }
+            case TINYINT: {
+                TinyIntVector vector = (TinyIntVector) target;
+                for (int row = 0; row < rows; row++) {
+                    if (!source.isNull(offset + row)) {
+                        vector.set(row, source.getByte(offset + row));
+                    }
+                }
+                break;
+            }
+            case FLOAT8: {
+                Float8Vector vector = (Float8Vector) target;
+                for (int row = 0; row < rows; row++) {
+                    if (!source.isNull(offset + row)) {
+                        vector.set(row, source.getDouble(offset + row));
+                    }
+                }
+                break;
+            }
+            case FLOAT4: {
+                Float4Vector vector = (Float4Vector) target;
+                for (int row = 0; row < rows; row++) {
+                    if (!source.isNull(offset + row)) {
+                        vector.set(row, source.getFloat(offset + row));
+                    }
+                }
+                break;
+            }
+            case DECIMAL: {
+                DecimalVector vector = (DecimalVector) target;
+                for (int row = 0; row < rows; row++) {
+                    if (!source.isNull(offset + row)) {
+                        vector.setSafe(row, source.getBigDecimal(offset + row));
+                    }
+                }
+                break;
+            }
+            case BIT: {
+                BitVector vector = (BitVector) target;
+                for (int row = 0; row < rows; row++) {
+                    if (!source.isNull(offset + row)) {
+                        vector.set(row, source.getBoolean(offset + row) ? 1 : 0);
+                    }
+                }
+                break;
+            }
+            case DATEDAY: {
+                DateDayVector vector = (DateDayVector) target;
+                for (int row = 0; row < rows; row++) {
+                    if (!source.isNull(offset + row)) {
+                        vector.set(row, (int) source.getLocalDate(offset + row).toEpochDay());
+                    }
+                }
+                break;
+            }
+            case TIMESTAMPMILLITZ: {
+                TimeStampMilliTZVector vector = (TimeStampMilliTZVector) target;
+                for (int row = 0; row < rows; row++) {
+                    if (!source.isNull(offset + row)) {
+                        vector.set(row, source.getTimestamp(offset + row).getTime());
+                    }
+                }
+                break;
+            }
+            case TIMESTAMPNANOTZ: {
+                TimeStampNanoTZVector vector = (TimeStampNanoTZVector) target;
+                for (int row = 0; row < rows; row++) {
+                    if (!source.isNull(offset + row)) {
+                        Timestamp timestamp = source.getTimestamp(offset + row);
+                        vector.set(row, Math.floorDiv(timestamp.getTime(), 1000) * 1_000_000_000L + timestamp.getNanos());
+                    }
+                }
+                break;
+            }
+            default:
+                copyStrings(source, offset, rows, (VarCharVector) target);
+        }
+    }
+
+    /**
+     * Dictionary encoded columns are encoded to UTF-8 once per distinct value
+     * rather than once per row.
+     */
+    private static void copyStrings(ColumnVector source, int offset, int rows, VarCharVector target) {
+        byte[][] encoded = null;
+        if (source instanceof StringVector && ((StringVector) source).isDictionaryEncoded() && !source.hasOtherValues()) {
+            encoded = new byte[((StringVector) source).dictionarySize()][];
+        }
+        for (int row = 0; row < rows; row++) {
+            if (source.isNull(offset + row)) {
+                continue;
+            }
+            byte[] bytes;
+            if (encoded != null) {
+                int code = ((StringVector) source).codes()[offset + row];
+                if (encoded[code] == null) {
+                    encoded[code] = ((StringVector) source).dictionary()[code].getBytes(StandardCharsets.UTF_8);
+                }
+                bytes = encoded[code];
+            } else {
+                bytes = source.getString(offset + row).getBytes(StandardCharsets.UTF_8);
+            }
+            target.setSafe(row, bytes);
+        }
+    }
+
+    @Override
+    public long bytesRead() {
+        return bytesRead;
+    }
+
+    @Override
+    protected void closeReadSource() throws IOException {
+        try {
+            resultSet.close();
+        } catch (SQLException e) {
+            throw new IOException(e);
+        }
+    }
+}
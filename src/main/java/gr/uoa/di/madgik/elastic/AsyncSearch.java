@@ -0,0 +1,99 @@
+package gr.uoa.di.madgik.elastic;
+
+import gr.uoa.di.madgik.elastic.sql.SqlResponseDecoder;
+import gr.uoa.di.madgik.elastic.sql.SqlResponseResults;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+
+import java.util.concurrent.CancellationException;
+
+/**
+ * Runs a query as an async search. The query is submitted with a
+ * {@code wait_for_completion_timeout}; if it is still running when the
+ * timeout elapses, the server keeps it running and stores its results, which
+ * are polled with an exponential backoff instead of holding the connection
+ * open. Once the results are received they are deleted from the server; the
+ * following pages are fetched through the cursor as for any other query.
+ */
+class AsyncSearch {
+
+    private static final long MIN_POLL_INTERVAL_MILLIS = 100;
+    private static final long MAX_POLL_INTERVAL_MILLIS = 5000;
+
+    private final JdbcStatement statement;
+    private final SqlResponseDecoder decoder;
+
+    private String id;
+    private boolean cancelled;
+    private boolean deleted;
+
+    AsyncSearch(JdbcStatement statement, SqlResponseDecoder decoder) {
+        this.statement = statement;
+        this.decoder = decoder;
+    }
+
+    /**
+     * Submits the query and waits for its results.
+     *
+     * @param submit   the request submitting the query
+     * @param deadline the deadline of the query
+     * @return the response holding the first page of the results
+     * @throws Exception if the query failed, was cancelled or the deadline passed
+     */
+    Response perform(Request submit, Deadline deadline) throws Exception {
+        try {
+            Response response = statement.perform(submit);
+            SqlResponseResults results = decoder.decode(response);
+            long interval = MIN_POLL_INTERVAL_MILLIS;
+            while (results.isRunning()) {
+                synchronized (this) {
+                    id = results.getId();
+                    checkCancelled();
+                    wait(Math.min(interval, deadline.remainingMillis()));
+                    checkCancelled();
+                }
+                if (deadline.isExpired()) {
+                    throw statement.timeout(null);
+                }
+                response = statement.perform(statement.asyncSearchRequest(results.getId(), decoder, deadline));
+                results = decoder.decode(response);
+                interval = Math.min(interval * 2, MAX_POLL_INTERVAL_MILLIS);
+            }
+            if (results.getId() != null) {
+                id = results.getId();
+                delete();
+            }
+            return response;
+        } catch (Exception e) {
+            // the search would otherwise run on until its keep alive expires
+            delete();
+            throw e;
+        }
+    }
+
+    /**
+     * Stops waiting for the query and deletes its async search. May be called
+     * from any thread.
+     */
+    synchronized void cancel() {
+        cancelled = true;
+        notifyAll();
+        delete();
+    }
+
+    /**
+     * Must be called holding the lock.
+     */
+    private void checkCancelled() {
+        if (cancelled) {
+            throw new CancellationException("async search was cancelled");
+        }
+    }
+
+    private synchronized void delete() {
+        if (id != null && !deleted) {
+            deleted = true;
+            statement.deleteAsyncSearch(id);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package gr.uoa.di.madgik.elastic;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+
+/**
+ * Extension of the statements of this driver that executes queries without
+ * blocking the calling thread. Obtained with
+ * {@code statement.unwrap(AsyncStatement.class)}.
+ * <p>
+ * The futures may complete on an I/O thread of the client, so dependent
+ * actions should not block: the rows are best read with
+ * {@link BatchResultSet#nextBatchAsync(int)}, which fetches the following
+ * pages without blocking either.
+ * <p>
+ * Statements running queries as async searches or creating
+ * {@link java.sql.ResultSet#TYPE_SCROLL_INSENSITIVE} result sets only
+ * execute queries blocking: their futures fail with a
+ * {@link java.sql.SQLFeatureNotSupportedException}.
+ */
+public interface AsyncStatement {
+
+    /**
+     * Executes a query. Cancelling the future cancels the query, as does
+     * {@link java.sql.Statement#cancel()}; the query timeout of the statement
+     * applies.
+     *
+     * @param sql the query
+     * @return a future completed with the result set of the query, or with
+     * an {@link java.sql.SQLException} if the query fails
+     */
+    CompletableFuture<JdbcResultSet> executeQueryAsync(String sql);
+
+    /**
+     * Returns a publisher of the results of a query in batches. The query is
+     * executed once the subscriber requests the first batch, and a page is
+     * only fetched when more batches are requested than the pages received
+     * hold. Cancelling the subscription cancels the query or closes its
+     * cursor. Each page has its own vectors, so a batch stays valid after the
+     * following ones are published.
+     *
+     * @param sql       the query
+     * @param batchSize the maximum number of rows of a batch
+     * @return a publisher for a single subscriber
+     */
+    Flow.Publisher<ColumnBatch> publishBatches(String sql, int batchSize);
+
+    /**
+     * Returns a publisher of the rows of a query, each an array of the values
+     * of its columns as returned by {@link java.sql.ResultSet#getObject(int)}.
+     * Pages are fetched on demand, as by {@link #publishBatches(String, int)}.
+     *
+     * @param sql the query
+     * @return a publisher for a single subscriber
+     */
+    Flow.Publisher<Object[]> publishRows(String sql);
+}
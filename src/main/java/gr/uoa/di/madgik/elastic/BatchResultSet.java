@@ -0,0 +1,40 @@
+package gr.uoa.di.madgik.elastic;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Extension of the result sets of this driver for consumers that read whole
+ * columns rather than single values. Obtained with
+ * {@code resultSet.unwrap(BatchResultSet.class)}.
+ * <p>
+ * Batches share the cursor of the result set: a batch starts at the row after
+ * the current one and leaves the cursor on its last row, so {@code next()}
+ * and {@code nextBatch(int)} can be mixed.
+ */
+public interface BatchResultSet {
+
+    /**
+     * Returns the rows after the current one, up to {@code maxRows} and never
+     * past the end of the page they belong to. The next page is fetched if the
+     * current one has been consumed.
+     * <p>
+     * The batch is a view of the page held by the result set and stays valid
+     * until the result set moves past that page or is closed.
+     *
+     * @param maxRows the maximum number of rows of the batch
+     * @return the batch, or null if there are no more rows
+     * @throws SQLException if the result set is closed or the next page could not be fetched
+     */
+    ColumnBatch nextBatch(int maxRows) throws SQLException;
+
+    /**
+     * Same as {@link #nextBatch(int)}, without blocking the calling thread
+     * while the next page is fetched. The future may complete on an I/O thread
+     * of the client, so dependent actions should not block.
+     *
+     * @param maxRows the maximum number of rows of the batch
+     * @return a future completed with the batch, or with null if there are no more rows
+     */
+    CompletableFuture<ColumnBatch> nextBatchAsync(int maxRows);
+}
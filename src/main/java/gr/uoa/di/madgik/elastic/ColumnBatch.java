@@ -0,0 +1,100 @@
+package gr.uoa.di.madgik.elastic;
+
+import gr.uoa.di.madgik.elastic.sql.BooleanVector;
+import gr.uoa.di.madgik.elastic.sql.ColumnVector;
+import gr.uoa.di.madgik.elastic.sql.DoubleVector;
+import gr.uoa.di.madgik.elastic.sql.IntVector;
+import gr.uoa.di.madgik.elastic.sql.LongVector;
+
+import java.sql.SQLException;
+
+/**
+ * A range of consecutive rows of a page, returned by
+ * {@link BatchResultSet#nextBatch(int)}.
+ * <p>
+ * The arrays returned by the getters are the arrays of the page itself: the
+ * rows of the batch are at indexes {@code getOffset()} to
+ * {@code getOffset() + getRowCount() - 1}. A row is null if its bit is set in
+ * the null mask of the column. Values that do not fit the type of their column
+ * are not present in the arrays; {@link ColumnVector#hasOtherValues()} tells
+ * whether a column has any, which are then read with
+ * {@link ColumnVector#getObject(int)}.
+ */
+public class ColumnBatch {
+
+    private final ColumnVector[] vectors;
+    private final int offset;
+    private final int rowCount;
+
+    ColumnBatch(ColumnVector[] vectors, int offset, int rowCount) {
+        this.vectors = vectors;
+        this.offset = offset;
+        this.rowCount = rowCount;
+    }
+
+    /**
+     * @return the index of the first row of the batch in the arrays of the page
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public int getColumnCount() {
+        return vectors.length;
+    }
+
+    /**
+     * @param columnIndex the first column is 1, the second is 2, ...
+     * @return the vector holding the values of the column
+     * @throws SQLException if the column index is not valid
+     */
+    public ColumnVector getVector(int columnIndex) throws SQLException {
+        if (columnIndex < 1 || columnIndex > vectors.length) {
+            throw new SQLException("Column Index out of range.");
+        }
+        return vectors[columnIndex - 1];
+    }
+
+    /**
+     * @param columnIndex the first column is 1, the second is 2, ...
+     * @return the null mask of the column, bit {@code row % 64} of word {@code row / 64}
+     * set for null rows, or null if the column has no null rows
+     * @throws SQLException if the column index is not valid
+     */
+    public long[] getNulls(int columnIndex) throws SQLException {
+        return getVector(columnIndex).nulls();
+    }
+
+    public long[] getLongs(int columnIndex) throws SQLException {
+        return vector(columnIndex, LongVector.class).values();
+    }
+
+    public int[] getInts(int columnIndex) throws SQLException {
+        return vector(columnIndex, IntVector.class).values();
+    }
+
+    public double[] getDoubles(int columnIndex) throws SQLException {
+        return vector(columnIndex, DoubleVector.class).values();
+    }
+
+    /**
+     * @param columnIndex the first column is 1, the second is 2, ...
+     * @return the values of a boolean column packed as a bitmap, laid out as the null mask
+     * @throws SQLException if the column index is not valid or the column is not boolean
+     */
+    public long[] getBooleans(int columnIndex) throws SQLException {
+        return vector(columnIndex, BooleanVector.class).bits();
+    }
+
+    private <V extends ColumnVector> V vector(int columnIndex, Class<V> type) throws SQLException {
+        ColumnVector vector = getVector(columnIndex);
+        if (!type.isInstance(vector)) {
+            throw new SQLException("Column " + columnIndex + " is not stored in a " + type.getSimpleName());
+        }
+        return type.cast(vector);
+    }
+}
@@ -0,0 +1,132 @@
+package gr.uoa.di.madgik.elastic;
+
+import java.sql.SQLException;
+import java.util.Properties;
+
+/**
+ * Connection properties understood by the driver, along with their default
+ * values.
+ */
+public enum ConnectionProperty {
+
+    PREFETCH_PAGES("prefetchPages", "1",
+            "Number of result pages requested ahead of the page being read. 0 disables prefetching."),
+    RESPONSE_BUFFER_SIZE("responseBufferSize", "65536",
+            "Size in bytes of the pooled buffers responses are received into."),
+    RESPONSE_BUFFER_LIMIT("responseBufferLimit", "104857600",
+            "Maximum size in bytes of a single response body."),
+    BINARY_FORMAT("binaryFormat", "none",
+            "Binary format query results are requested in: smile or cbor, or none for JSON."),
+    COLUMNAR("columnar", "false",
+            "Request query results as one array per column rather than one array per row."),
+    SPILL_DIRECTORY("spillDirectory", "",
+            "Directory of the files holding the pages of scrollable result sets and spilled pages. Empty for the temporary directory."),
+    MEMORY_LIMIT("memoryLimit", "0",
+            "Maximum number of bytes of heap taken by the result pages held by the connection. 0 for no limit."),
+    MEMORY_POLICY("memoryPolicy", "spill",
+            "What happens to a result page that does not fit the memory limit: spill, to write it to disk, or fail, to fail the query."),
+    METRICS_NAME("metricsName", "",
+            "Name under which the memory budget of the connection is registered as a JMX MBean. Empty to not register it."),
+    IO_THREAD_COUNT("ioThreadCount", "0",
+            "Number of I/O threads of the HTTP client. 0 uses one thread per processor."),
+    MAX_CONNECTIONS_PER_ROUTE("maxConnectionsPerRoute", "100",
+            "Maximum number of HTTP connections to a single node."),
+    MAX_CONNECTIONS_TOTAL("maxConnectionsTotal", "300",
+            "Maximum number of HTTP connections to all the nodes."),
+    KEEP_ALIVE("keepAlive", "60000",
+            "Maximum time in milliseconds an idle HTTP connection is kept for reuse, unless the server allows less."),
+    IDLE_TIMEOUT("idleTimeout", "30000",
+            "Time in milliseconds after which idle HTTP connections are closed in the background. 0 disables eviction."),
+    CONNECT_TIMEOUT("connectTimeout", "1000",
+            "Timeout in milliseconds for establishing an HTTP connection. 0 waits indefinitely."),
+    SOCKET_TIMEOUT("socketTimeout", "30000",
+            "Timeout in milliseconds of inactivity while waiting for response data. 0 waits indefinitely."),
+    TCP_NO_DELAY("tcpNoDelay", "true",
+            "Disable Nagle's algorithm on the HTTP connections."),
+    NODE_SELECTION("nodeSelection", "latency",
+            "How requests are spread over the nodes: latency, to favour the nodes answering fastest, or round_robin."),
+    HEDGE("hedge", "false",
+            "Send a duplicate of a query to another node if it has not been answered after the hedge delay."),
+    HEDGE_PERCENTILE("hedgePercentile", "95",
+            "Percentile of the latency of recent queries used as the hedge delay."),
+    HEDGE_MIN_DELAY("hedgeMinDelay", "10",
+            "Minimum hedge delay in milliseconds."),
+    ASYNC_SEARCH("asyncSearch", "false",
+            "Run queries as async searches, polling for their results instead of waiting on an open HTTP connection."),
+    ASYNC_SEARCH_WAIT("asyncSearchWait", "1000",
+            "Time in milliseconds an async search is waited for before its results are polled."),
+    ASYNC_SEARCH_KEEP_ALIVE("asyncSearchKeepAlive", "86400000",
+            "Time in milliseconds the server keeps an async search and its results if they are not retrieved."),
+    SNIFF("sniff", "false",
+            "Periodically discover the HTTP nodes of the cluster and spread requests over them."),
+    SNIFF_INTERVAL("sniffInterval", "300000",
+            "Interval in milliseconds between two node discoveries."),
+    SNIFF_AFTER_FAILURE_DELAY("sniffAfterFailureDelay", "60000",
+            "Delay in milliseconds of the node discovery scheduled after a node fails.");
+
+    private final String key;
+    private final String defaultValue;
+    private final String description;
+
+    ConnectionProperty(String key, String defaultValue, String description) {
+        this.key = key;
+        this.defaultValue = defaultValue;
+        this.description = description;
+    }
+
+    public String getKey() {
+        return key;
+    }
+
+    public String getDefaultValue() {
+        return defaultValue;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    /**
+     * @param properties the connection properties
+     * @return the value of this property, or its default value if not set
+     */
+    public String get(Properties properties) {
+        return properties.getProperty(key, defaultValue);
+    }
+
+    /**
+     * @param properties the connection properties
+     * @return the value of this property as a boolean
+     */
+    public boolean getBoolean(Properties properties) {
+        return Boolean.parseBoolean(get(properties).trim());
+    }
+
+    /**
+     * @param properties the connection properties
+     * @return the value of this property as an integer
+     * @throws SQLException if the value is not a valid integer
+     */
+    public int getInt(Properties properties) throws SQLException {
+        String value = get(properties);
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new SQLException("Invalid value for property " + key + ": " + value, e);
+        }
+    }
+
+    /**
+     * @param properties the connection properties
+     * @return the value of this property as a long
+     * @throws SQLException if the value is not a valid long
+     */
+    public long getLong(Properties properties) throws SQLException {
+        String value = get(properties);
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            throw new SQLException("Invalid value for property " + key + ": " + value, e);
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package gr.uoa.di.madgik.elastic;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The point in time by which a query must complete, shared by the request
+ * of the query and the requests of all its pages.
+ */
+class Deadline {
+
+    static final Deadline NONE = new Deadline(0, false);
+
+    private final long end;
+    private final boolean bounded;
+
+    private Deadline(long end, boolean bounded) {
+        this.end = end;
+        this.bounded = bounded;
+    }
+
+    /**
+     * @param seconds the time allowed from now, 0 for no limit
+     * @return the deadline
+     */
+    static Deadline afterSeconds(int seconds) {
+        return seconds > 0 ? new Deadline(System.nanoTime() + TimeUnit.SECONDS.toNanos(seconds), true) : NONE;
+    }
+
+    boolean isBounded() {
+        return bounded;
+    }
+
+    boolean isExpired() {
+        return bounded && remainingNanos() <= 0;
+    }
+
+    /**
+     * @return the time left in nanoseconds, {@link Long#MAX_VALUE} if not bounded
+     */
+    long remainingNanos() {
+        return bounded ? end - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    /**
+     * @return the time left in milliseconds, at least 1, {@link Long#MAX_VALUE} if not bounded
+     */
+    long remainingMillis() {
+        return bounded ? Math.max(TimeUnit.NANOSECONDS.toMillis(remainingNanos()), 1) : Long.MAX_VALUE;
+    }
+}
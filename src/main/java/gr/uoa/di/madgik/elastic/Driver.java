@@ -1,6 +1,8 @@
 package gr.uoa.di.madgik.elastic;
 
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Properties;
 import java.util.logging.Logger;
 
@@ -18,6 +20,7 @@ public class Driver implements java.sql.Driver {
         } catch (SQLException e) {
             throw new ExceptionInInitializerError(e);
         }
+        MemoryBudget.DRIVER.register("type=MemoryBudget,name=driver");
     }
 
     /**
@@ -61,7 +64,25 @@ public class Driver implements java.sql.Driver {
 
     @Override
     public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
-        return new DriverPropertyInfo[0];
+        Properties properties = url == null ? info : JdbcConnection.withUrlParameters(url, info);
+        if (properties == null) {
+            properties = new Properties();
+        }
+        List<DriverPropertyInfo> infos = new ArrayList<>();
+        for (String key : new String[]{"user", "password"}) {
+            DriverPropertyInfo property = new DriverPropertyInfo(key, properties.getProperty(key));
+            property.description = "The " + key + " to authenticate with.";
+            infos.add(property);
+        }
+        for (ConnectionProperty connectionProperty : ConnectionProperty.values()) {
+            DriverPropertyInfo property = new DriverPropertyInfo(connectionProperty.getKey(), connectionProperty.get(properties));
+            property.description = connectionProperty.getDescription();
+            if ("true".equals(connectionProperty.getDefaultValue()) || "false".equals(connectionProperty.getDefaultValue())) {
+                property.choices = new String[]{"true", "false"};
+            }
+            infos.add(property);
+        }
+        return infos.toArray(new DriverPropertyInfo[0]);
     }
 
     @Override
@@ -105,4 +126,15 @@ public class Driver implements java.sql.Driver {
     public static boolean isRegistered() {
         return driver != null;
     }
+
+    /**
+     * The budget of the heap taken by the result pages of all the
+     * connections of the driver, also registered as a JMX MBean named
+     * {@code gr.uoa.di.madgik.elastic:type=MemoryBudget,name=driver}.
+     *
+     * @return the budget, without a limit unless one has been set
+     */
+    public static MemoryBudgetMXBean getMemoryBudget() {
+        return MemoryBudget.DRIVER;
+    }
 }
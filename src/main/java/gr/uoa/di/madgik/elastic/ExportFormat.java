@@ -0,0 +1,30 @@
+package gr.uoa.di.madgik.elastic;
+
+/**
+ * The text formats query results can be exported in with
+ * {@link ExportStatement#export(String, ExportFormat, java.nio.channels.WritableByteChannel)}.
+ */
+public enum ExportFormat {
+
+    /**
+     * Comma separated values, with a header row of the column names.
+     */
+    CSV("csv"),
+    /**
+     * Tab separated values, with a header row of the column names.
+     */
+    TSV("tsv");
+
+    private final String name;
+
+    ExportFormat(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @return the value of the {@code format} parameter requesting this format
+     */
+    public String getName() {
+        return name;
+    }
+}
@@ -0,0 +1,34 @@
+package gr.uoa.di.madgik.elastic;
+
+import java.nio.channels.WritableByteChannel;
+import java.sql.SQLException;
+
+/**
+ * Extension of the statements of this driver that exports the results of a
+ * query in a text format, for bulk dumps that do not need the values
+ * themselves. Obtained with {@code statement.unwrap(ExportStatement.class)}.
+ * <p>
+ * Elasticsearch formats the results: the body of the response for each page
+ * of the cursor is written to the channel as it arrives, without being
+ * parsed. The fetch size and the query timeout of the statement apply.
+ */
+public interface ExportStatement {
+
+    /**
+     * Executes a query and writes all of its results to a channel, following
+     * the cursor until the last page. The header row is only written once.
+     * <p>
+     * The channel is written from an I/O thread of the client, so it should
+     * be a blocking channel that is quick to write to. A {@link java.nio.channels.FileChannel}
+     * is written by the operating system straight from the socket whenever
+     * possible. The channel is not closed.
+     *
+     * @param sql     the query
+     * @param format  the format of the results
+     * @param channel the channel the results are written to
+     * @return the number of bytes written
+     * @throws SQLException if the statement is closed or the query fails, in
+     *                      which case part of the results may have been written
+     */
+    long export(String sql, ExportFormat format, WritableByteChannel channel) throws SQLException;
+}
@@ -0,0 +1,201 @@
+package gr.uoa.di.madgik.elastic;
+
+import gr.uoa.di.madgik.elastic.sql.SqlResponseDecoder;
+import org.apache.http.HttpHost;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Request;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+import org.elasticsearch.client.RestClient;
+
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.logging.Logger;
+
+/**
+ * Sends a query and, if it has not been answered after a delay, a duplicate
+ * of it to another node. The first response wins and the other request is
+ * cancelled; if the other response arrives anyway, its cursor is closed.
+ * <p>
+ * Only the first request of a query is hedged: fetching a page moves the
+ * cursor forward on the server, so it cannot be sent twice.
+ */
+class HedgedRequest {
+
+    private static final Logger logger = Logger.getLogger(HedgedRequest.class.getName());
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "elastic-jdbc-hedging");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final JdbcStatement statement;
+    private final RestClient client;
+    private final SqlResponseDecoder decoder;
+    private final CompletableFuture<Response> result = new CompletableFuture<>();
+
+    private Attempt primary;
+    private Attempt hedge;
+    private ScheduledFuture<?> timer;
+    private Exception failure;
+    private int pending;
+
+    /**
+     * Creates a request of the query; a request cannot be sent twice.
+     */
+    interface Requests {
+
+        Request create() throws Exception;
+    }
+
+    HedgedRequest(JdbcStatement statement, RestClient client, SqlResponseDecoder decoder) {
+        this.statement = statement;
+        this.client = client;
+        this.decoder = decoder;
+    }
+
+    /**
+     * Sends the query and waits for the first response.
+     *
+     * @param requests   creates a request of the query, called once per attempt
+     * @param delayNanos the delay after which the duplicate is sent
+     * @param deadline   the deadline of the query
+     * @return the winning response
+     * @throws Exception if all attempts failed, the deadline passed or the wait was interrupted
+     */
+    Response perform(Requests requests, long delayNanos, Deadline deadline) throws Exception {
+        synchronized (this) {
+            if (!result.isDone()) {
+                primary = send(requests.create(), Collections.emptySet());
+            }
+            if (!result.isDone()) {
+                timer = scheduler.schedule(() -> sendHedge(requests), delayNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+        try {
+            return deadline.isBounded() ? result.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS) : result.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (TimeoutException e) {
+            synchronized (this) {
+                result.completeExceptionally(e);
+                cancelAll();
+            }
+            throw statement.timeout(e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            synchronized (this) {
+                result.completeExceptionally(e);
+                cancelAll();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Cancels all the attempts; the query then fails with a
+     * {@link CancellationException}. May be called from any thread, also
+     * before {@link #perform}.
+     */
+    void cancel() {
+        synchronized (this) {
+            result.completeExceptionally(new CancellationException("request was cancelled"));
+            cancelAll();
+        }
+    }
+
+    private void sendHedge(Requests requests) {
+        try {
+            synchronized (this) {
+                if (result.isDone()) {
+                    return;
+                }
+                logger.fine("hedging query after no response from " + primary.host);
+                hedge = send(requests.create(), primary.host == null
+                        ? Collections.emptySet() : Collections.singleton(primary.host));
+            }
+        } catch (Exception e) {
+            logger.warning("failed to hedge query: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Must be called holding the lock.
+     */
+    private Attempt send(Request request, Set<HttpHost> exclude) {
+        Attempt attempt = new Attempt();
+        pending++;
+        attempt.host = LatencyAwareNodeSelector.selectOne(exclude,
+                () -> attempt.cancellable = client.performRequestAsync(request, attempt));
+        return attempt;
+    }
+
+    /**
+     * Must be called holding the lock.
+     */
+    private void cancelAll() {
+        if (timer != null) {
+            timer.cancel(false);
+        }
+        for (Attempt attempt : new Attempt[]{primary, hedge}) {
+            if (attempt != null && attempt.cancellable != null) {
+                attempt.cancellable.cancel();
+            }
+        }
+    }
+
+    private class Attempt implements ResponseListener {
+
+        private volatile Cancellable cancellable;
+        private HttpHost host;
+
+        @Override
+        public void onSuccess(Response response) {
+            synchronized (HedgedRequest.this) {
+                pending--;
+                if (result.complete(response)) {
+                    cancelAll();
+                    return;
+                }
+            }
+            // lost the race: release the cursor the server opened for it
+            try {
+                String cursor = decoder.decode(response).getCursor();
+                if (cursor != null) {
+                    statement.closeCursor(cursor);
+                }
+            } catch (Exception e) {
+                logger.warning("failed to read hedged response: " + e.getMessage());
+            }
+        }
+
+        @Override
+        public void onFailure(Exception exception) {
+            synchronized (HedgedRequest.this) {
+                pending--;
+                if (result.isDone()) {
+                    return;
+                }
+                if (failure == null) {
+                    failure = exception;
+                }
+                // the duplicate is not worth waiting for once the query has failed
+                if (pending == 0) {
+                    if (timer != null) {
+                        timer.cancel(false);
+                    }
+                    result.completeExceptionally(failure);
+                }
+            }
+        }
+    }
+}
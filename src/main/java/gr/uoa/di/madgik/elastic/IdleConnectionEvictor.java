@@ -0,0 +1,49 @@
+package gr.uoa.di.madgik.elastic;
+
+import org.apache.http.nio.conn.NHttpClientConnectionManager;
+
+import java.io.Closeable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Periodically closes the pooled connections of a client that have expired
+ * or have been idle for too long, so that connections dropped by the server
+ * or by a load balancer are not handed to a request.
+ */
+class IdleConnectionEvictor implements Closeable {
+
+    private static final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "elastic-jdbc-evictor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final ScheduledFuture<?> task;
+
+    /**
+     * @param connectionManager the connection pool of the client
+     * @param idleMillis        the time after which an idle connection is closed
+     */
+    IdleConnectionEvictor(NHttpClientConnectionManager connectionManager, long idleMillis) {
+        long period = Math.max(idleMillis / 2, 1000);
+        this.task = scheduler.scheduleWithFixedDelay(() -> {
+            connectionManager.closeExpiredConnections();
+            connectionManager.closeIdleConnections(idleMillis, TimeUnit.MILLISECONDS);
+        }, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * @return whether the connections are no longer evicted
+     */
+    boolean isClosed() {
+        return task.isCancelled();
+    }
+
+    @Override
+    public void close() {
+        task.cancel(false);
+    }
+}
@@ -1,17 +1,40 @@
 package gr.uoa.di.madgik.elastic;
 
+import gr.uoa.di.madgik.elastic.sql.ByteBufferPool;
+import gr.uoa.di.madgik.elastic.sql.ResponseFormat;
 import org.apache.http.HttpHost;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.conn.ssl.NoopHostnameVerifier;
+import org.apache.http.config.RegistryBuilder;
 import org.apache.http.impl.client.BasicCredentialsProvider;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.conn.NoopIOSessionStrategy;
+import org.apache.http.nio.conn.SchemeIOSessionStrategy;
+import org.apache.http.nio.conn.ssl.SSLIOSessionStrategy;
+import org.elasticsearch.client.NodeSelector;
 import org.elasticsearch.client.RestClient;
+import org.elasticsearch.client.RestClientBuilder;
+import org.elasticsearch.client.sniff.ElasticsearchNodesSniffer;
+import org.elasticsearch.client.sniff.SniffOnFailureListener;
+import org.elasticsearch.client.sniff.Sniffer;
 
+import javax.management.ObjectName;
 import javax.net.ssl.SSLContext;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -23,11 +46,26 @@ public class JdbcConnection extends JdbcWrapper implements Connection {
 
     private static final String NUM_SERVERS = "numServers";
     private static final String PREFIX_SERVER = "server";
+    private static final int MAX_POOLED_BUFFERS = 64;
+    private static final AtomicLong ids = new AtomicLong();
 
     private final ReentrantLock lock = new ReentrantLock();
 
+    private final Properties properties;
+    private final ByteBufferPool bufferPool;
+    private final long bufferLimit;
+    private final ResponseFormat responseFormat;
+    private final boolean columnar;
+    private final MemoryBudget memoryBudget;
+    private final boolean hedge;
+    private final double hedgePercentile;
+    private final long hedgeMinDelay;
+    private final int connectTimeout;
+    private volatile int networkTimeout;
+    private RestClientRegistry.Lease lease;
     private RestClient client;
     private Map<String, Class<?>> typeMap = new HashMap<>();
+    private final Set<JdbcStatement> statements = ConcurrentHashMap.newKeySet();
 
     private String catalog = null;
     private boolean autoCommit = true;
@@ -36,39 +74,219 @@ public class JdbcConnection extends JdbcWrapper implements Connection {
 
     private Map<String, ClientInfoStatus> clientInfo;
 
+    /**
+     * Opens a connection to the nodes listed in a URL of the form
+     * {@code jdbc:elastic://[scheme://]host[:port][,[scheme://]host[:port]...][?key=value[&key=value...]]}.
+     * Requests are spread over the nodes; with {@code sniff=true} the nodes of
+     * the cluster are also discovered periodically. URL parameters are used as
+     * connection properties, unless also given in {@code properties}.
+     *
+     * @param url        the URL of the cluster
+     * @param properties the connection properties
+     * @throws SQLException if the URL is not valid or the client cannot be created
+     */
     public JdbcConnection(String url, Properties properties) throws SQLException {
+        this.properties = withUrlParameters(url, properties);
+        this.bufferPool = new ByteBufferPool(ConnectionProperty.RESPONSE_BUFFER_SIZE.getInt(this.properties), MAX_POOLED_BUFFERS);
+        this.bufferLimit = ConnectionProperty.RESPONSE_BUFFER_LIMIT.getLong(this.properties);
+        this.responseFormat = ResponseFormat.of(ConnectionProperty.BINARY_FORMAT.get(this.properties));
+        if (this.responseFormat == null) {
+            throw new SQLException("Invalid value for property " + ConnectionProperty.BINARY_FORMAT.getKey() + ": "
+                    + ConnectionProperty.BINARY_FORMAT.get(this.properties));
+        }
+        this.columnar = ConnectionProperty.COLUMNAR.getBoolean(this.properties);
+        MemoryBudget.Policy memoryPolicy = MemoryBudget.Policy.of(ConnectionProperty.MEMORY_POLICY.get(this.properties));
+        if (memoryPolicy == null) {
+            throw new SQLException("Invalid value for property " + ConnectionProperty.MEMORY_POLICY.getKey() + ": "
+                    + ConnectionProperty.MEMORY_POLICY.get(this.properties));
+        }
+        long memoryLimit = ConnectionProperty.MEMORY_LIMIT.getLong(this.properties);
+        if (memoryLimit < 0) {
+            throw new SQLException("Invalid value for property " + ConnectionProperty.MEMORY_LIMIT.getKey() + ": " + memoryLimit);
+        }
+        this.memoryBudget = new MemoryBudget("connection", memoryLimit, memoryPolicy, MemoryBudget.DRIVER);
+        this.hedge = ConnectionProperty.HEDGE.getBoolean(this.properties);
+        this.hedgePercentile = ConnectionProperty.HEDGE_PERCENTILE.getInt(this.properties);
+        this.hedgeMinDelay = TimeUnit.MILLISECONDS.toNanos(ConnectionProperty.HEDGE_MIN_DELAY.getLong(this.properties));
+        this.connectTimeout = ConnectionProperty.CONNECT_TIMEOUT.getInt(this.properties);
+        this.networkTimeout = ConnectionProperty.SOCKET_TIMEOUT.getInt(this.properties);
         try {
-            // TODO: refactor
-            final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
-            if (properties.containsKey("user") && properties.containsKey("password")) {
-                String username = properties.getProperty("user");
-                String password = properties.getProperty("password");
-                credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password));
+            HttpHost[] hosts = parseHosts(url);
+
+            String username = this.properties.getProperty("user");
+            String password = this.properties.getProperty("password");
+            boolean authenticated = username != null && password != null;
+            boolean sniff = ConnectionProperty.SNIFF.getBoolean(this.properties);
+            int sniffInterval = ConnectionProperty.SNIFF_INTERVAL.getInt(this.properties);
+            int sniffAfterFailureDelay = ConnectionProperty.SNIFF_AFTER_FAILURE_DELAY.getInt(this.properties);
+            String nodeSelection = ConnectionProperty.NODE_SELECTION.get(this.properties).trim().toLowerCase(Locale.ROOT);
+            if (!nodeSelection.equals("latency") && !nodeSelection.equals("round_robin")) {
+                throw new SQLException("Invalid value for property " + ConnectionProperty.NODE_SELECTION.getKey() + ": " + nodeSelection);
             }
+            boolean latencyAware = nodeSelection.equals("latency");
+            int ioThreadCount = ConnectionProperty.IO_THREAD_COUNT.getInt(this.properties);
+            int maxConnectionsPerRoute = ConnectionProperty.MAX_CONNECTIONS_PER_ROUTE.getInt(this.properties);
+            int maxConnectionsTotal = ConnectionProperty.MAX_CONNECTIONS_TOTAL.getInt(this.properties);
+            long keepAlive = ConnectionProperty.KEEP_ALIVE.getLong(this.properties);
+            long idleTimeout = ConnectionProperty.IDLE_TIMEOUT.getLong(this.properties);
+            int socketTimeout = networkTimeout;
+            boolean tcpNoDelay = ConnectionProperty.TCP_NO_DELAY.getBoolean(this.properties);
+
+            List<String> nodes = Arrays.stream(hosts)
+                    .map(host -> host.toURI().toLowerCase(Locale.ROOT))
+                    .sorted()
+                    .collect(Collectors.toList());
+            List<Object> key = Arrays.asList(nodes, authenticated ? username : null, authenticated ? password : null,
+                    sniff, sniff ? sniffInterval : null, sniff ? sniffAfterFailureDelay : null, nodeSelection,
+                    ioThreadCount, maxConnectionsPerRoute, maxConnectionsTotal, keepAlive, idleTimeout,
+                    connectTimeout, socketTimeout, tcpNoDelay);
+
+            lease = RestClientRegistry.acquire(key, attachments -> {
+                // TODO: refactor
+                final CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+                if (authenticated) {
+                    credentialsProvider.setCredentials(AuthScope.ANY, new UsernamePasswordCredentials(username, password));
+                }
 
-            String elasticUrl = url.split("//", 2)[1]; // get url without jdbc// prefix
-            elasticUrl = elasticUrl.startsWith("http") ? elasticUrl : "http://" + elasticUrl;
-            HttpHost httpHost = HttpHost.create(elasticUrl);
-
-            SSLContext sslContext = SSLContext.getInstance("TLS");
-            sslContext.init(null, null, null);
+                SSLContext sslContext = SSLContext.getInstance("TLS");
+                sslContext.init(null, null, null);
+
+                // the pool is built here rather than by the client to configure the I/O reactor and evict idle connections
+                IOReactorConfig reactorConfig = IOReactorConfig.custom()
+                        .setIoThreadCount(ioThreadCount > 0 ? ioThreadCount : Runtime.getRuntime().availableProcessors())
+                        .setConnectTimeout(connectTimeout)
+                        .setSoTimeout(socketTimeout)
+                        .setTcpNoDelay(tcpNoDelay)
+                        .setSoKeepAlive(true)
+                        .build();
+                PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(
+                        new DefaultConnectingIOReactor(reactorConfig),
+                        RegistryBuilder.<SchemeIOSessionStrategy>create()
+                                .register("http", NoopIOSessionStrategy.INSTANCE)
+                                .register("https", new SSLIOSessionStrategy(sslContext, NoopHostnameVerifier.INSTANCE))
+                                .build());
+                // shut down by the registry if a later step fails, closed with the client otherwise
+                attachments.add(connectionManager);
+                connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+                connectionManager.setMaxTotal(maxConnectionsTotal);
+                if (idleTimeout > 0) {
+                    attachments.add(new IdleConnectionEvictor(connectionManager, idleTimeout));
+                }
 
-            RestClient restClient = RestClient.builder(httpHost)
-                    .setHttpClientConfigCallback(config -> config
-                            .setDefaultCredentialsProvider(credentialsProvider)
-                            .setSSLContext(sslContext)
-                            .setSSLHostnameVerifier(NoopHostnameVerifier.INSTANCE)
-                    )
-                    .build();
+                SniffOnFailureListener sniffListener = sniff ? new SniffOnFailureListener() : null;
+                NodeSelector nodeSelector = sniff ? NodeSelector.SKIP_DEDICATED_MASTERS : NodeSelector.ANY;
+                LatencyAwareNodeSelector latencySelector = latencyAware ? new LatencyAwareNodeSelector(nodeSelector) : null;
+                RestClientBuilder builder = RestClient.builder(hosts)
+                        .setHttpClientConfigCallback(config -> {
+                            config.setDefaultCredentialsProvider(credentialsProvider)
+                                    .setConnectionManager(connectionManager);
+                            if (keepAlive > 0) {
+                                config.setKeepAliveStrategy((response, context) -> {
+                                    long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                                    return duration > 0 ? Math.min(duration, keepAlive) : keepAlive;
+                                });
+                            }
+                            if (latencySelector != null) {
+                                config.addInterceptorLast(latencySelector.requestInterceptor())
+                                        .addInterceptorFirst(latencySelector.responseInterceptor());
+                            }
+                            return config;
+                        })
+                        .setRequestConfigCallback(config -> config
+                                .setConnectTimeout(connectTimeout)
+                                .setSocketTimeout(socketTimeout));
+                if (latencySelector != null) {
+                    builder.setNodeSelector(latencySelector)
+                            .setFailureListener(latencySelector.failureListener(sniffListener));
+                    attachments.add(latencySelector);
+                } else if (sniff) {
+                    builder.setNodeSelector(nodeSelector)
+                            .setFailureListener(sniffListener);
+                }
+                RestClient restClient = builder.build();
+                attachments.add(new LatencyTracker());
+
+                if (sniff) {
+                    ElasticsearchNodesSniffer.Scheme scheme = "https".equals(hosts[0].getSchemeName())
+                            ? ElasticsearchNodesSniffer.Scheme.HTTPS : ElasticsearchNodesSniffer.Scheme.HTTP;
+                    Sniffer sniffer = Sniffer.builder(restClient)
+                            .setSniffIntervalMillis(sniffInterval)
+                            .setSniffAfterFailureDelayMillis(sniffAfterFailureDelay)
+                            .setNodesSniffer(new ElasticsearchNodesSniffer(restClient,
+                                    ElasticsearchNodesSniffer.DEFAULT_SNIFF_REQUEST_TIMEOUT, scheme))
+                            .build();
+                    sniffListener.setSniffer(sniffer);
+                    attachments.add(sniffer);
+                }
+                return restClient;
+            });
 
             logger.fine("Connected to: " + url);
-            client = restClient;
+            client = lease.getClient();
+
+            String metricsName = ConnectionProperty.METRICS_NAME.get(this.properties).trim();
+            if (!metricsName.isEmpty()) {
+                memoryBudget.register("type=MemoryBudget,name=" + ObjectName.quote(metricsName)
+                        + ",connection=" + ids.incrementAndGet());
+            }
 
         } catch (Exception e) {
             throw logAndConvert(e);
         }
     }
 
+    /**
+     * @param url the URL of the connection
+     * @return the nodes listed in the URL
+     */
+    private static HttpHost[] parseHosts(String url) {
+        String elasticUrl = url.split("//", 2)[1]; // get url without jdbc// prefix
+        int query = elasticUrl.indexOf('?');
+        if (query >= 0) {
+            elasticUrl = elasticUrl.substring(0, query);
+        }
+        List<HttpHost> hosts = new ArrayList<>();
+        for (String node : elasticUrl.split(",")) {
+            node = node.trim();
+            while (node.endsWith("/")) {
+                node = node.substring(0, node.length() - 1);
+            }
+            if (!node.isEmpty()) {
+                hosts.add(HttpHost.create(node.startsWith("http") ? node : "http://" + node));
+            }
+        }
+        if (hosts.isEmpty()) {
+            throw new IllegalArgumentException("No host in url " + url);
+        }
+        return hosts.toArray(new HttpHost[0]);
+    }
+
+    /**
+     * @param url        the URL of the connection
+     * @param properties the properties given to the driver
+     * @return the properties given to the driver, on top of the parameters of the URL
+     */
+    static Properties withUrlParameters(String url, Properties properties) {
+        Properties merged = new Properties();
+        int query = url.indexOf('?');
+        if (query >= 0) {
+            for (String parameter : url.substring(query + 1).split("&")) {
+                if (parameter.isEmpty()) {
+                    continue;
+                }
+                int eq = parameter.indexOf('=');
+                String name = eq < 0 ? parameter : parameter.substring(0, eq);
+                String value = eq < 0 ? "" : parameter.substring(eq + 1);
+                merged.setProperty(URLDecoder.decode(name, StandardCharsets.UTF_8),
+                        URLDecoder.decode(value, StandardCharsets.UTF_8));
+            }
+        }
+        if (properties != null) {
+            merged.putAll(properties);
+        }
+        return merged;
+    }
+
     /**
      * @return Elasticsearch rest client.
      */
@@ -76,6 +294,117 @@ public class JdbcConnection extends JdbcWrapper implements Connection {
         return client;
     }
 
+    /**
+     * @return the latency statistics of the nodes, keyed by node URI; empty
+     * unless the {@code nodeSelection} property is {@code latency}.
+     */
+    public Map<String, LatencyAwareNodeSelector.NodeStats> getNodeStats() {
+        RestClientRegistry.Lease current = lease;
+        LatencyAwareNodeSelector selector = current == null ? null : current.getAttachment(LatencyAwareNodeSelector.class);
+        return selector == null ? Collections.emptyMap() : selector.getStats();
+    }
+
+    /**
+     * @return the latencies of the queries sent through the client of this connection.
+     */
+    LatencyTracker getLatencyTracker() {
+        return lease.getAttachment(LatencyTracker.class);
+    }
+
+    /**
+     * @return the delay in nanoseconds after which a query is hedged, or -1
+     * if hedging is disabled or the latency of queries is not known yet.
+     */
+    long getHedgeDelay() {
+        if (!hedge || client.getNodes().size() < 2) {
+            return -1;
+        }
+        long percentile = getLatencyTracker().percentile(hedgePercentile);
+        return percentile < 0 ? -1 : Math.max(percentile, hedgeMinDelay);
+    }
+
+    /**
+     * @return the timeout in milliseconds for establishing an HTTP connection, 0 for no timeout.
+     */
+    int getConnectTimeout() {
+        return connectTimeout;
+    }
+
+    /**
+     * @return the timeout in milliseconds of inactivity while waiting for
+     * response data, 0 for no timeout.
+     * @see #setNetworkTimeout(Executor, int)
+     */
+    int getSocketTimeout() {
+        return networkTimeout;
+    }
+
+    /**
+     * Tracks an open statement of this connection, to be cancelled by
+     * {@link #abort(Executor)}.
+     */
+    void register(JdbcStatement statement) {
+        statements.add(statement);
+    }
+
+    void unregister(JdbcStatement statement) {
+        statements.remove(statement);
+    }
+
+    /**
+     * @return the properties this connection was created with.
+     */
+    public Properties getProperties() {
+        return properties;
+    }
+
+    /**
+     * @return the pool of buffers responses are received into.
+     */
+    public ByteBufferPool getBufferPool() {
+        return bufferPool;
+    }
+
+    /**
+     * @return the maximum size in bytes of a single response body.
+     */
+    public long getBufferLimit() {
+        return bufferLimit;
+    }
+
+    /**
+     * @return the format query results are requested in.
+     */
+    public ResponseFormat getResponseFormat() {
+        return responseFormat;
+    }
+
+    /**
+     * @return the directory of the spill files of scrollable result sets, or null for the temporary directory.
+     */
+    Path getSpillDirectory() {
+        String directory = ConnectionProperty.SPILL_DIRECTORY.get(properties).trim();
+        return directory.isEmpty() ? null : Paths.get(directory);
+    }
+
+    /**
+     * @return the budget of the heap taken by the result pages of this connection.
+     */
+    public MemoryBudgetMXBean getMemoryBudget() {
+        return memoryBudget;
+    }
+
+    MemoryBudget budget() {
+        return memoryBudget;
+    }
+
+    /**
+     * @return whether query results are requested in columnar layout.
+     */
+    public boolean isColumnar() {
+        return columnar;
+    }
+
     /**
      * Locks this connection with a reentrant lock.
      *
@@ -187,7 +516,8 @@ public class JdbcConnection extends JdbcWrapper implements Connection {
     /**
      * Closes this connection. All open statements, prepared statements and
      * result sets that where created by this connection become invalid after
-     * calling this method.
+     * calling this method. The client is shared with the other connections to
+     * the same cluster and is only closed along with the last of them.
      *
      * @throws SQLException if there is a problem when closing the connection
      */
@@ -195,10 +525,17 @@ public class JdbcConnection extends JdbcWrapper implements Connection {
     public void close() throws SQLException {
         lock();
         try {
-            client.close();
+            for (JdbcStatement statement : statements) {
+                closeQuietly(statement);
+            }
+            if (lease != null) {
+                lease.release();
+            }
+            memoryBudget.unregister();
         } catch (Throwable e) {
             throw logAndConvert(e);
         } finally {
+            lease = null;
             client = null;
             unlock();
         }
@@ -870,20 +1207,54 @@ public class JdbcConnection extends JdbcWrapper implements Connection {
     }
 
     /**
-     * <p><b>Unsupported Operation.</b></p>
+     * Closes this connection at once. The in-flight requests of its
+     * statements are cancelled, their cursors closed and the client
+     * released by the executor; threads blocked on a query get an exception.
+     * Has no effect if the connection is already closed.
      *
      * @param executor The {@code Executor}  implementation which will
      *                 be used by {@code abort}.
-     * @throws SQLException if the connection is closed
+     * @throws SQLException if the executor is null
      */
     @Override
     public void abort(Executor executor) throws SQLException {
-        checkClosed();
-        throw new UnsupportedOperationException("Unsupported Operation");
+        if (executor == null) {
+            throw new SQLException("Executor is null");
+        }
+        RestClientRegistry.Lease aborted;
+        lock();
+        try {
+            aborted = lease;
+            lease = null;
+            client = null;
+            memoryBudget.unregister();
+        } finally {
+            unlock();
+        }
+        if (aborted == null) {
+            return;
+        }
+        executor.execute(() -> {
+            for (JdbcStatement statement : statements) {
+                statement.abort();
+                closeQuietly(statement);
+            }
+            aborted.release();
+        });
+    }
+
+    private static void closeQuietly(JdbcStatement statement) {
+        try {
+            statement.close();
+        } catch (SQLException e) {
+            logger.warning("failed to close statement: " + e.getMessage());
+        }
     }
 
     /**
-     * <p><b>Unsupported Operation.</b></p>
+     * Sets the socket timeout of the requests sent by this connection,
+     * initially the {@code socketTimeout} property. Requests are sent
+     * asynchronously, so the executor is not used.
      *
      * @param executor     The {@code Executor}  implementation which will
      *                     be used by {@code setNetworkTimeout}.
@@ -894,12 +1265,15 @@ public class JdbcConnection extends JdbcWrapper implements Connection {
      *                     timeout period expires before the operation
      *                     completes, a SQLException will be thrown.
      *                     A value of 0 indicates that there is not timeout for database operations.
-     * @throws SQLException if the connection is closed
+     * @throws SQLException if the connection is closed or the timeout is negative
      */
     @Override
     public void setNetworkTimeout(Executor executor, int milliseconds) throws SQLException {
         checkClosed();
-        throw new UnsupportedOperationException("Unsupported Operation");
+        if (milliseconds < 0) {
+            throw new SQLException("Network timeout must be >= 0");
+        }
+        this.networkTimeout = milliseconds;
     }
 
     /**
@@ -916,7 +1290,7 @@ public class JdbcConnection extends JdbcWrapper implements Connection {
     @Override
     public int getNetworkTimeout() throws SQLException {
         checkClosed();
-        return 0;
+        return networkTimeout;
     }
 
     /**
@@ -1,14 +1,19 @@
 package gr.uoa.di.madgik.elastic;
 
+import gr.uoa.di.madgik.elastic.sql.SqlParameter;
+import gr.uoa.di.madgik.elastic.sql.SqlRequest;
+
 import java.io.InputStream;
 import java.io.Reader;
 import java.math.BigDecimal;
 import java.net.URL;
+import java.nio.channels.WritableByteChannel;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
 public class JdbcPreparedStatement extends JdbcStatement implements PreparedStatement {
@@ -16,43 +21,83 @@ public class JdbcPreparedStatement extends JdbcStatement implements PreparedStat
     private final Logger logger = Logger.getLogger(JdbcPreparedStatement.class.getName());
 
     protected final String sql;
-    private final Map<Integer, String> parameters = new HashMap<>();
+    private final SqlTemplate template;
+    private final SqlParameter[] parameters;
+    private final StringBuilder buffer = new StringBuilder();
 
     public JdbcPreparedStatement(JdbcConnection con, String sql) {
         super(con);
         this.sql = sql;
+        this.template = SqlTemplate.compile(sql);
+        this.parameters = new SqlParameter[template.getParameterCount()];
     }
 
     public JdbcPreparedStatement(JdbcConnection con, String sql, int rsType, int rsConcurrency, int rsHoldability) throws SQLException {
         super(con, rsType, rsConcurrency, rsHoldability);
         this.sql = sql;
+        this.template = SqlTemplate.compile(sql);
+        this.parameters = new SqlParameter[template.getParameterCount()];
     }
 
+    /**
+     * Sets the value of a placeholder.
+     *
+     * @throws SQLException if the statement is closed or the index is out of range
+     */
+    private void bind(int parameterIndex, SqlParameter parameter) throws SQLException {
+        checkClosed();
+        if (parameterIndex < 1 || parameterIndex > parameters.length) {
+            throw new SQLException("Parameter index out of range: " + parameterIndex);
+        }
+        parameters[parameterIndex - 1] = parameter;
+    }
 
     @Override
     public ResultSet executeQuery() throws SQLException {
         checkClosed();
-        // TODO: refactor
-        String translated = sql;
-        for (int i = 1; i <= parameters.size(); i++) {
-            if (parameters.get(i).equals("'null'")) {
-                String part = translated.split("\\?", 2)[0];
-                if (part.endsWith("!=")) {
-                    translated = translated.replaceFirst("!=\\?", " is NOT NULL ");
-                } else if (part.endsWith("=")) {
-                    translated = translated.replaceFirst("=\\?", " is NULL ");
-                } else {
-                    translated = translated.replaceFirst("\\?", parameters.get(i));
-                }
-            } else
-                translated = translated.replaceFirst("\\?", parameters.get(i));
+        List<SqlParameter> params = new ArrayList<>(parameters.length);
+        String query = template.bind(parameters, params, buffer);
+        return executeQuery(new SqlRequest()
+                .setQuery(query)
+                .setParams(params.isEmpty() ? null : params));
+    }
+
+    /**
+     * Executes the query with the parameters currently set, without blocking
+     * the calling thread.
+     *
+     * @return a future completed with the result set of the query
+     * @see AsyncStatement
+     */
+    public CompletableFuture<JdbcResultSet> executeQueryAsync() {
+        List<SqlParameter> params = new ArrayList<>(parameters.length);
+        String query;
+        try {
+            checkClosed();
+            query = template.bind(parameters, params, buffer);
+        } catch (SQLException e) {
+            return CompletableFuture.failedFuture(e);
         }
-        // FIXME: move to nativeSQL?
-        String[] parts = translated.split("GROUP BY", 2);
-        if (parts[1].matches("\\s+[a-z0-9]+\\.[a-z0-9]+\\..*")) {
-            translated = translated.split("GROUP BY", 2)[0];
-        }
-        return executeQuery(translated);
+        return executeQueryAsync(new SqlRequest()
+                .setQuery(query)
+                .setParams(params.isEmpty() ? null : params));
+    }
+
+    /**
+     * Executes the query with the parameters currently set and writes its
+     * results to a channel.
+     *
+     * @return the number of bytes written
+     * @throws SQLException if the statement is closed or the query fails
+     * @see ExportStatement
+     */
+    public long export(ExportFormat format, WritableByteChannel channel) throws SQLException {
+        checkClosed();
+        List<SqlParameter> params = new ArrayList<>(parameters.length);
+        String query = template.bind(parameters, params, buffer);
+        return export(new SqlRequest()
+                .setQuery(query)
+                .setParams(params.isEmpty() ? null : params), format, channel);
     }
 
     @Override
@@ -63,86 +108,72 @@ public class JdbcPreparedStatement extends JdbcStatement implements PreparedStat
 
     @Override
     public void setNull(int parameterIndex, int sqlType) throws SQLException {
-        checkClosed();
-        this.parameters.put(parameterIndex, "null");
+        bind(parameterIndex, SqlParameter.of(null, sqlType));
     }
 
     @Override
     public void setBoolean(int parameterIndex, boolean x) throws SQLException {
-        checkClosed();
-        this.parameters.put(parameterIndex, String.valueOf(x));
+        bind(parameterIndex, new SqlParameter("boolean", x));
     }
 
     @Override
     public void setByte(int parameterIndex, byte x) throws SQLException {
-        checkClosed();
-        this.parameters.put(parameterIndex, String.valueOf(x));
+        bind(parameterIndex, new SqlParameter("byte", x));
     }
 
     @Override
     public void setShort(int parameterIndex, short x) throws SQLException {
-        checkClosed();
-        this.parameters.put(parameterIndex, String.valueOf(x));
+        bind(parameterIndex, new SqlParameter("short", x));
     }
 
     @Override
     public void setInt(int parameterIndex, int x) throws SQLException {
-        checkClosed();
-        this.parameters.put(parameterIndex, String.valueOf(x));
+        bind(parameterIndex, new SqlParameter("integer", x));
     }
 
     @Override
     public void setLong(int parameterIndex, long x) throws SQLException {
-        checkClosed();
-        this.parameters.put(parameterIndex, String.valueOf(x));
+        bind(parameterIndex, new SqlParameter("long", x));
     }
 
     @Override
     public void setFloat(int parameterIndex, float x) throws SQLException {
-        checkClosed();
-        this.parameters.put(parameterIndex, String.valueOf(x));
+        bind(parameterIndex, new SqlParameter("float", x));
     }
 
     @Override
     public void setDouble(int parameterIndex, double x) throws SQLException {
-        checkClosed();
-        this.parameters.put(parameterIndex, String.valueOf(x));
+        bind(parameterIndex, new SqlParameter("double", x));
     }
 
     @Override
     public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException {
-        checkClosed();
-        this.parameters.put(parameterIndex, String.valueOf(x));
+        bind(parameterIndex, SqlParameter.of(x));
     }
 
     @Override
     public void setString(int parameterIndex, String x) throws SQLException {
-        checkClosed();
-        this.parameters.put(parameterIndex, String.format("'%s'", x));
+        bind(parameterIndex, SqlParameter.of(x));
     }
 
     @Override
     public void setBytes(int parameterIndex, byte[] x) throws SQLException {
-        checkClosed();
-        this.parameters.put(parameterIndex, Arrays.toString(x));
+        bind(parameterIndex, SqlParameter.of(x == null ? null : Arrays.toString(x)));
     }
 
     @Override
     public void setDate(int parameterIndex, Date x) throws SQLException {
-        checkClosed();
-        this.parameters.put(parameterIndex, String.valueOf(x.toInstant()));
+        bind(parameterIndex, SqlParameter.of(x));
     }
 
     @Override
     public void setTime(int parameterIndex, Time x) throws SQLException {
-        checkClosed();
-        this.parameters.put(parameterIndex, String.valueOf(x.toInstant()));
+        bind(parameterIndex, SqlParameter.of(x));
     }
 
     @Override
     public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException {
-        checkClosed();
-        this.parameters.put(parameterIndex, String.valueOf(x.toInstant()));
+        bind(parameterIndex, SqlParameter.of(x));
     }
 
     @Override
@@ -166,23 +197,17 @@ public class JdbcPreparedStatement extends JdbcStatement implements PreparedStat
     @Override
     public void clearParameters() throws SQLException {
         checkClosed();
-        this.parameters.clear();
+        Arrays.fill(parameters, null);
     }
 
     @Override
     public void setObject(int parameterIndex, Object x, int targetSqlType) throws SQLException {
-        checkClosed();
-        this.parameters.put(parameterIndex, String.valueOf(x));
+        bind(parameterIndex, SqlParameter.of(x, targetSqlType));
     }
 
     @Override
     public void setObject(int parameterIndex, Object x) throws SQLException {
-        checkClosed();
-        String item = String.valueOf(x);
-        if (!item.matches("[0-9]+\\.?[0-9]*")) {
-            item = "'" + item + "'";
-        }
-        this.parameters.put(parameterIndex, item);
+        bind(parameterIndex, SqlParameter.of(x));
     }
 
     @Override
@@ -3,20 +3,24 @@ package gr.uoa.di.madgik.elastic;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.SerializationFeature;
+import gr.uoa.di.madgik.elastic.sql.ColumnVector;
 import gr.uoa.di.madgik.elastic.sql.ColumnInfo;
+import gr.uoa.di.madgik.elastic.sql.SqlResponseDecoder;
+import gr.uoa.di.madgik.elastic.sql.SqlResponseResults;
 import org.elasticsearch.client.Response;
-import org.json.simple.parser.JSONParser;
 
 import java.io.*;
 import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.sql.Date;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.logging.Logger;
 
-public class JdbcResultSet extends JdbcWrapper implements ResultSet {
+public class JdbcResultSet extends JdbcWrapper implements ResultSet, BatchResultSet {
 
     private static final Logger logger = Logger.getLogger(JdbcResultSet.class.getName());
     private final ObjectMapper mapper = new ObjectMapper();
@@ -24,41 +28,310 @@ public class JdbcResultSet extends JdbcWrapper implements ResultSet {
     private JdbcStatement statement;
     private final ResultSetMetaData rsMetadata;
     private final ResultSetColumns rsColumns;
-    private final List<List<Object>> rsRows;
-    private Iterator<List<Object>> rowsIterator;
-    private List<Object> current;
+    private final SqlResponseDecoder decoder;
+    private final MemoryBudget budget;
+    private SqlResponseResults currentPage;
+    private long retained;
+    private ColumnVector[] vectors;
+    private int rowCount;
+    private int row = -1;
+    private long firstRow;
+    private String cursor;
+    private volatile PageFetcher fetcher;
     private int fetchSize;
+    private int fetchDirection = ResultSet.FETCH_FORWARD;
+
+    // scrollable result sets only
+    private SpillFile spill;
+    private int page = -1;
+    private SqlResponseResults latest;
 
     private boolean closed = false;
     private boolean wasNull = false;
 
     public JdbcResultSet() {
+        this.decoder = new SqlResponseDecoder();
+        this.budget = null;
         this.rsMetadata = new JdbcResultSetMetaData();
         this.rsColumns = new ResultSetColumns();
-        this.rsRows = new ArrayList<>();
-        this.rowsIterator = rsRows.iterator();
+        this.vectors = new ColumnVector[0];
     }
 
-    @SuppressWarnings("unchecked")
     public JdbcResultSet(JdbcStatement statement, Response response) throws SQLException {
+        this(statement, new SqlResponseDecoder(statement.getFetchSize()), response);
+    }
+
+    /**
+     * @param statement the statement that issued the query
+     * @param decoder   the decoder the response was received with
+     * @param response  the response holding the first page
+     * @throws SQLException if the response cannot be decoded
+     */
+    public JdbcResultSet(JdbcStatement statement, SqlResponseDecoder decoder, Response response) throws SQLException {
+        this(statement, decoder, response, ConnectionProperty.PREFETCH_PAGES.getInt(statement.connection.getProperties()));
+    }
+
+    /**
+     * @param statement     the statement that issued the query
+     * @param decoder       the decoder the response was received with
+     * @param response      the response holding the first page
+     * @param prefetchPages the number of pages to fetch ahead of the page being read
+     * @throws SQLException if the response cannot be decoded
+     */
+    JdbcResultSet(JdbcStatement statement, SqlResponseDecoder decoder, Response response, int prefetchPages) throws SQLException {
         this.mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
         this.statement = statement;
+        this.decoder = decoder;
+        this.budget = statement.connection.budget();
         this.fetchSize = statement.getFetchSize();
         // TODO: refactor
+        SqlResponseResults results;
         try {
-            JSONParser parser = new JSONParser();
-            Map<String, Object> results = (Map<String, Object>) parser.parse(new InputStreamReader(response.getEntity().getContent()));
-            ColumnInfo[] columns = mapper.convertValue(results.get("columns"), ColumnInfo[].class);
-
-            this.rsColumns = new ResultSetColumns(columns);
-            this.rsRows = (List<List<Object>>) results.get("rows");
-            this.rowsIterator = this.rsRows.iterator();
+            results = decoder.decode(response);
+            this.rsColumns = new ResultSetColumns(results.getColumns().toArray(new ColumnInfo[0]));
             this.rsMetadata = new JdbcResultSetMetaData(rsColumns);
+            setPage(results);
 
         } catch (Exception e) {
             logger.severe(e.getMessage());
             throw new SQLException("failed to parse response", e);
         }
+        try {
+            if (statement.getResultSetType() == ResultSet.TYPE_SCROLL_INSENSITIVE) {
+                try {
+                    this.spill = new SpillFile(statement.connection.getSpillDirectory(), decoder);
+                } catch (IOException e) {
+                    throw new SQLException("failed to create spill file", e);
+                }
+                spill(results);
+                this.page = spill.getPageCount() - 1;
+            } else {
+                account();
+            }
+        } catch (SQLException e) {
+            close();
+            if (results.getCursor() != null) {
+                statement.closeCursor(results.getCursor());
+            }
+            throw e;
+        }
+        if (cursor != null) {
+            this.fetcher = new PageFetcher(statement, decoder, cursor, prefetchPages, statement.getDeadline());
+        }
+    }
+
+    /**
+     * Replaces the rows held in memory with the rows of a newly received page
+     * and moves before its first row. Only a single page is kept at a time,
+     * the previous one becomes garbage.
+     *
+     * @param results the parsed page
+     */
+    private void setPage(SqlResponseResults results) {
+        this.currentPage = results;
+        this.vectors = results.getVectors();
+        this.rowCount = results.getRowCount();
+        this.row = -1;
+        this.cursor = results.getCursor();
+    }
+
+    /**
+     * Moves to the next page received by the {@link PageFetcher}, waiting for
+     * it if it has not arrived yet.
+     *
+     * @return false if there are no more pages
+     * @throws SQLException if the page could not be fetched
+     */
+    private boolean nextPage() throws SQLException {
+        dropPage();
+        SqlResponseResults page = fetcher.take();
+        if (page == null) {
+            fetcher = null;
+            return false;
+        }
+        firstRow += rowCount;
+        setPage(page);
+        account();
+        return true;
+    }
+
+    /**
+     * Drops the current page, which has been read to its end, and releases
+     * the bytes reserved for it. The page is made unreachable first, so that
+     * the budget does not admit the next page while it is still on the heap.
+     */
+    private void dropPage() {
+        currentPage = null;
+        vectors = new ColumnVector[0];
+        release();
+    }
+
+    /**
+     * Accounts the pages held by this result set against the memory budget
+     * of the connection: the current page and, if scrollable, the latest
+     * page. If they do not fit, the latest page, which is in the spill file
+     * already, is dropped under the spill policy, while the current page is
+     * held regardless; under the fail policy the result set is closed.
+     *
+     * @throws MemoryLimitExceededException if the pages do not fit and the policy is to fail
+     */
+    private void account() throws SQLException {
+        if (budget == null) {
+            return;
+        }
+        release();
+        long bytes = held();
+        if (!budget.tryReserve(bytes)) {
+            if (budget.getPolicy() == MemoryBudget.Policy.FAIL) {
+                SQLException e = budget.rejected(bytes);
+                close();
+                throw e;
+            }
+            if (latest != currentPage) {
+                latest = null;
+                bytes = held();
+            }
+            budget.reserve(bytes);
+        }
+        retained = bytes;
+    }
+
+    /**
+     * @return the size of the pages held by this result set
+     */
+    private long held() {
+        long bytes = currentPage == null ? 0 : currentPage.estimateSize();
+        if (latest != null && latest != currentPage) {
+            bytes += latest.estimateSize();
+        }
+        return bytes;
+    }
+
+    /**
+     * Releases the bytes reserved for the pages held by this result set.
+     */
+    private void release() {
+        if (budget != null) {
+            budget.release(retained);
+        }
+        retained = 0;
+    }
+
+    /**
+     * Appends a page to the spill file of a scrollable result set. The page
+     * stays on the heap until the next one is appended, since reading
+     * forward is the most common.
+     */
+    private void spill(SqlResponseResults results) throws SQLException {
+        try {
+            spill.append(results);
+        } catch (IOException e) {
+            throw new SQLException("failed to spill page", e);
+        }
+        if (results.getRowCount() > 0) {
+            latest = results;
+        }
+        account();
+    }
+
+    /**
+     * Appends the next page received by the {@link PageFetcher} to the spill
+     * file, leaving the current page as it is.
+     *
+     * @return false if there are no more pages
+     */
+    private boolean spillNextPage() throws SQLException {
+        SqlResponseResults results = fetcher.take();
+        if (results == null) {
+            fetcher = null;
+            return false;
+        }
+        spill(results);
+        return true;
+    }
+
+    /**
+     * @return true if there are more than {@code rows} rows, fetching pages until there are
+     */
+    private boolean hasMoreRowsThan(long rows) throws SQLException {
+        while (spill.getRowCount() <= rows && fetcher != null) {
+            spillNextPage();
+        }
+        return spill.getRowCount() > rows;
+    }
+
+    private void fetchAll() throws SQLException {
+        while (fetcher != null) {
+            spillNextPage();
+        }
+    }
+
+    /**
+     * Makes a page of the spill file the current page, reading it back
+     * unless it is the latest one.
+     */
+    private void show(int index) throws SQLException {
+        if (index == page) {
+            return;
+        }
+        SqlResponseResults results;
+        if (latest != null && index == spill.getPageCount() - 1) {
+            results = latest;
+        } else {
+            try {
+                results = spill.read(index);
+            } catch (IOException e) {
+                throw new SQLException("failed to read spilled page", e);
+            }
+        }
+        setPage(results);
+        page = index;
+        firstRow = spill.getFirstRow(index);
+        account();
+    }
+
+    /**
+     * Moves the cursor of a scrollable result set, fetching the pages up to
+     * the target row.
+     *
+     * @param target the index of the row in the results, negative to move
+     *               before the first row, past the last row to move after it
+     * @return true if the cursor is on a row
+     */
+    private boolean moveTo(long target) throws SQLException {
+        if (target < 0) {
+            if (spill.getPageCount() > 0) {
+                show(0);
+            }
+            row = -1;
+            return false;
+        }
+        if (!hasMoreRowsThan(target)) {
+            if (spill.getPageCount() > 0) {
+                show(spill.getPageCount() - 1);
+            }
+            row = rowCount;
+            return false;
+        }
+        if (page < 0 || target < firstRow || target >= firstRow + rowCount) {
+            show(spill.pageOf(target));
+        }
+        row = (int) (target - firstRow);
+        return true;
+    }
+
+    /**
+     * @return the index of the current row in the results, -1 before the first row
+     */
+    private long position() {
+        return firstRow + row;
+    }
+
+    private void checkScrollable(String method) throws SQLException {
+        checkClosed();
+        if (spill == null) {
+            throw new SQLException(method + " not supported for ResultSet.TYPE_FORWARD_ONLY");
+        }
     }
 
     /**
@@ -83,28 +356,160 @@ public class JdbcResultSet extends JdbcWrapper implements ResultSet {
      * @throws SQLException when the ResultSet is closed.
      */
     private void checkClosed() throws SQLException {
-        if (rowsIterator == null) {
+        if (closed) {
             throw new SQLException();
         }
     }
 
+    /**
+     * Stops fetching pages and releases the cursor on the server. Rows of the
+     * page already received can still be read, reading past them fails.
+     * May be called from any thread.
+     */
+    void cancel() {
+        PageFetcher current = fetcher;
+        if (current != null) {
+            current.cancel();
+        }
+    }
+
+    /**
+     * @return the columns of the results, as described by Elasticsearch
+     */
+    List<ColumnInfo> getColumns() {
+        return rsColumns.getRsColumns();
+    }
+
     @Override
     public void close() throws SQLException {
         if (!closed) {
             closed = true;
-            if (statement != null) {
-                statement.closeOnCompletion();
+            if (fetcher != null) {
+                fetcher.close();
+                fetcher = null;
+            }
+            if (spill != null) {
+                try {
+                    spill.close();
+                } catch (IOException e) {
+                    logger.warning("failed to delete spill file: " + e.getMessage());
+                }
+                spill = null;
+                latest = null;
+            }
+            release();
+            if (statement != null && !statement.isClosed() && statement.isCloseOnCompletion()) {
+                statement.close();
             }
-            rowsIterator = null;
+            vectors = null;
+            currentPage = null;
         }
     }
 
     @Override
     public boolean next() throws SQLException {
         checkClosed();
-        boolean hasNext = this.rowsIterator.hasNext();
-        this.current = hasNext ? this.rowsIterator.next() : new ArrayList<>();
-        return hasNext;
+        if (spill != null) {
+            return moveTo(position() + 1);
+        }
+        if (row < rowCount) {
+            row++;
+        }
+        while (row >= rowCount && fetcher != null) {
+            if (nextPage()) {
+                row = 0;
+            }
+        }
+        return row < rowCount;
+    }
+
+    @Override
+    public ColumnBatch nextBatch(int maxRows) throws SQLException {
+        checkClosed();
+        if (maxRows <= 0) {
+            throw new SQLException("maxRows must be positive");
+        }
+        if (spill != null) {
+            return moveTo(position() + 1) ? batch(row, maxRows) : null;
+        }
+        int start = Math.min(row + 1, rowCount);
+        while (start >= rowCount && fetcher != null) {
+            if (nextPage()) {
+                start = 0;
+            }
+        }
+        return batch(start, maxRows);
+    }
+
+    @Override
+    public CompletableFuture<ColumnBatch> nextBatchAsync(int maxRows) {
+        try {
+            checkClosed();
+            if (maxRows <= 0) {
+                throw new SQLException("maxRows must be positive");
+            }
+        } catch (SQLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        PageFetcher current = fetcher;
+        if (spill != null) {
+            if (current != null && position() + 1 >= spill.getRowCount()) {
+                // the page is written to the spill file off the I/O thread completing it
+                return current.takeAsync().thenComposeAsync(page -> {
+                    if (page == null) {
+                        fetcher = null;
+                    } else {
+                        try {
+                            spill(page);
+                        } catch (SQLException e) {
+                            return CompletableFuture.failedFuture(e);
+                        }
+                    }
+                    return nextBatchAsync(maxRows);
+                });
+            }
+            try {
+                // the next row is in the spill file, or there are no more rows
+                return CompletableFuture.completedFuture(nextBatch(maxRows));
+            } catch (SQLException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+        }
+        int start = Math.min(row + 1, rowCount);
+        if (start < rowCount || current == null) {
+            return CompletableFuture.completedFuture(batch(start, maxRows));
+        }
+        dropPage();
+        return current.takeAsync().thenCompose(page -> {
+            if (page == null) {
+                fetcher = null;
+                return CompletableFuture.completedFuture(batch(rowCount, maxRows));
+            }
+            firstRow += rowCount;
+            setPage(page);
+            try {
+                account();
+            } catch (SQLException e) {
+                return CompletableFuture.failedFuture(e);
+            }
+            // the page may be empty
+            return nextBatchAsync(maxRows);
+        });
+    }
+
+    /**
+     * Moves to the last row of the batch starting at a row of the current page.
+     *
+     * @return the batch, or null if the row is past the end of the page
+     */
+    private ColumnBatch batch(int start, int maxRows) {
+        if (start >= rowCount) {
+            row = rowCount;
+            return null;
+        }
+        int count = Math.min(maxRows, rowCount - start);
+        row = start + count - 1;
+        return new ColumnBatch(vectors, start, count);
     }
 
     @Override
@@ -113,51 +518,83 @@ public class JdbcResultSet extends JdbcWrapper implements ResultSet {
         return wasNull;
     }
 
+    /**
+     * Returns the vector of a column and records whether the value of the
+     * current row is null.
+     */
+    private ColumnVector vector(int columnIndex) throws SQLException {
+        checkClosed();
+        if (row < 0 || row >= rowCount) {
+            throw new SQLException("No current row.");
+        }
+        if (columnIndex < 1 || columnIndex > vectors.length) {
+            throw new SQLException("Column Index out of range.");
+        }
+        ColumnVector vector = vectors[columnIndex - 1];
+        wasNull = vector.isNull(row);
+        return vector;
+    }
+
+    /**
+     * Returns the value of a column of the current row and records whether
+     * it was null.
+     */
+    private Object value(int columnIndex) throws SQLException {
+        return vector(columnIndex).getObject(row);
+    }
+
     @Override
     public String getString(int columnIndex) throws SQLException {
-        return getObject(columnIndex, String.class);
+        ColumnVector vector = vector(columnIndex);
+        return wasNull ? null : vector.getString(row);
     }
 
     @Override
     public boolean getBoolean(int columnIndex) throws SQLException {
-        return getObject(columnIndex, Boolean.class);
+        ColumnVector vector = vector(columnIndex);
+        return !wasNull && vector.getBoolean(row);
     }
 
     @Override
     public byte getByte(int columnIndex) throws SQLException {
-        return getObject(columnIndex, Byte.class);
+        ColumnVector vector = vector(columnIndex);
+        return wasNull ? 0 : vector.getByte(row);
     }
 
     @Override
     public short getShort(int columnIndex) throws SQLException {
-        return getObject(columnIndex, Short.class);
+        ColumnVector vector = vector(columnIndex);
+        return wasNull ? 0 : vector.getShort(row);
     }
 
     @Override
     public int getInt(int columnIndex) throws SQLException {
-        return getObject(columnIndex, Integer.class);
+        ColumnVector vector = vector(columnIndex);
+        return wasNull ? 0 : vector.getInt(row);
     }
 
     @Override
     public long getLong(int columnIndex) throws SQLException {
-        return getObject(columnIndex, Long.class);
+        ColumnVector vector = vector(columnIndex);
+        return wasNull ? 0 : vector.getLong(row);
     }
 
     @Override
     public float getFloat(int columnIndex) throws SQLException {
-        return getObject(columnIndex, Float.class);
+        ColumnVector vector = vector(columnIndex);
+        return wasNull ? 0 : vector.getFloat(row);
     }
 
     @Override
     public double getDouble(int columnIndex) throws SQLException {
-        return getObject(columnIndex, Double.class);
+        ColumnVector vector = vector(columnIndex);
+        return wasNull ? 0 : vector.getDouble(row);
     }
 
     @Override
     public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException {
         BigDecimal bigDecimal = getBigDecimal(columnIndex);
-        bigDecimal.setScale(scale);
-        return bigDecimal;
+        return bigDecimal == null ? null : bigDecimal.setScale(scale, RoundingMode.HALF_UP);
     }
 
     @Override
@@ -167,17 +604,20 @@ public class JdbcResultSet extends JdbcWrapper implements ResultSet {
 
     @Override
     public Date getDate(int columnIndex) throws SQLException {
-        return Date.valueOf(getString(columnIndex));
+        ColumnVector vector = vector(columnIndex);
+        return wasNull ? null : vector.getDate(row);
     }
 
     @Override
     public Time getTime(int columnIndex) throws SQLException {
-        return Time.valueOf(getString(columnIndex));
+        ColumnVector vector = vector(columnIndex);
+        return wasNull ? null : vector.getTime(row);
     }
 
     @Override
     public Timestamp getTimestamp(int columnIndex) throws SQLException {
-        return Timestamp.valueOf(getString(columnIndex));
+        ColumnVector vector = vector(columnIndex);
+        return wasNull ? null : vector.getTimestamp(row);
     }
 
     @Override
@@ -200,42 +640,42 @@ public class JdbcResultSet extends JdbcWrapper implements ResultSet {
 
     @Override
     public String getString(String columnLabel) throws SQLException {
-        return getObject(columnLabel, String.class);
+        return getString(findColumn(columnLabel));
     }
 
     @Override
     public boolean getBoolean(String columnLabel) throws SQLException {
-        return getObject(columnLabel, Boolean.class);
+        return getBoolean(findColumn(columnLabel));
     }
 
     @Override
     public byte getByte(String columnLabel) throws SQLException {
-        return (byte) getObject(columnLabel);
+        return getByte(findColumn(columnLabel));
     }
 
     @Override
     public short getShort(String columnLabel) throws SQLException {
-        return getObject(columnLabel, Short.class);
+        return getShort(findColumn(columnLabel));
     }
 
     @Override
     public int getInt(String columnLabel) throws SQLException {
-        return getObject(columnLabel, Integer.class);
+        return getInt(findColumn(columnLabel));
     }
 
     @Override
     public long getLong(String columnLabel) throws SQLException {
-        return getObject(columnLabel, Long.class);
+        return getLong(findColumn(columnLabel));
     }
 
     @Override
     public float getFloat(String columnLabel) throws SQLException {
-        return getObject(columnLabel, Float.class);
+        return getFloat(findColumn(columnLabel));
     }
 
     @Override
     public double getDouble(String columnLabel) throws SQLException {
-        return getObject(columnLabel, Double.class);
+        return getDouble(findColumn(columnLabel));
     }
 
     @Override
@@ -305,13 +745,7 @@ public class JdbcResultSet extends JdbcWrapper implements ResultSet {
 
     @Override
     public Object getObject(int columnIndex) throws SQLException {
-        checkClosed();
-        if (columnIndex < 1 || columnIndex > rsColumns.getSize()) {
-            throw new SQLException("Column Index out of range.");
-        }
-        Object data = this.current.get(columnIndex - 1);
-        wasNull = data == null;
-        return data;
+        return value(columnIndex);
     }
 
     @Override
@@ -322,7 +756,11 @@ public class JdbcResultSet extends JdbcWrapper implements ResultSet {
     @Override
     public int findColumn(String columnLabel) throws SQLException {
         checkClosed();
-        return rsColumns.getRsColumnNames().indexOf(columnLabel);
+        int index = rsColumns.getRsColumnNames().indexOf(columnLabel);
+        if (index < 0) {
+            throw new SQLException("Unknown column: " + columnLabel);
+        }
+        return index + 1;
     }
 
     @Override
@@ -339,100 +777,110 @@ public class JdbcResultSet extends JdbcWrapper implements ResultSet {
 
     @Override
     public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
-        return getObject(columnIndex, BigDecimal.class);
+        ColumnVector vector = vector(columnIndex);
+        return wasNull ? null : vector.getBigDecimal(row);
     }
 
     @Override
     public BigDecimal getBigDecimal(String columnLabel) throws SQLException {
-        return getObject(columnLabel, BigDecimal.class);
+        return getBigDecimal(findColumn(columnLabel));
     }
 
     @Override
     public boolean isBeforeFirst() throws SQLException {
-        throw new SQLFeatureNotSupportedException("isBeforeFirst() not implemented");
+        checkClosed();
+        return firstRow == 0 && row < 0 && rowCount > 0;
     }
 
     @Override
     public boolean isAfterLast() throws SQLException {
-        throw new SQLFeatureNotSupportedException("isAfterLast() not implemented");
+        checkClosed();
+        return row >= rowCount && fetcher == null && firstRow + rowCount > 0;
     }
 
     @Override
     public boolean isFirst() throws SQLException {
-        throw new SQLFeatureNotSupportedException("isFirst() not implemented");
+        checkClosed();
+        return row >= 0 && row < rowCount && position() == 0;
     }
 
     @Override
     public boolean isLast() throws SQLException {
-        throw new SQLFeatureNotSupportedException("isLast() not implemented");
+        checkScrollable("isLast()");
+        return row >= 0 && row < rowCount && !hasMoreRowsThan(position() + 1);
     }
 
     @Override
     public void beforeFirst() throws SQLException {
-        throw new SQLFeatureNotSupportedException("beforeFirst() not implemented");
+        checkScrollable("beforeFirst()");
+        moveTo(-1);
     }
 
     @Override
     public void afterLast() throws SQLException {
-        throw new SQLFeatureNotSupportedException("afterLast() not implemented");
+        checkScrollable("afterLast()");
+        fetchAll();
+        moveTo(spill.getRowCount());
     }
 
     @Override
     public boolean first() throws SQLException {
-        throw new SQLFeatureNotSupportedException("first() not implemented");
+        checkScrollable("first()");
+        return moveTo(0);
     }
 
     @Override
     public boolean last() throws SQLException {
-        throw new SQLFeatureNotSupportedException("last() not implemented");
+        checkScrollable("last()");
+        fetchAll();
+        return moveTo(spill.getRowCount() - 1);
     }
 
     @Override
     public int getRow() throws SQLException {
         checkClosed();
-        throw new SQLFeatureNotSupportedException("getRow() not implemented");
+        return row >= 0 && row < rowCount ? (int) (position() + 1) : 0;
     }
 
     @Override
     public boolean absolute(int row) throws SQLException {
-        checkClosed();
-        if (statement.getResultSetType() != ResultSet.TYPE_FORWARD_ONLY) {
-            throw new SQLException("absolute() not supported for ResultSet.TYPE_FORWARD_ONLY");
+        checkScrollable("absolute()");
+        if (row >= 0) {
+            return moveTo(row - 1L);
         }
-        throw new SQLFeatureNotSupportedException("absolute() not implemented");
+        fetchAll();
+        return moveTo(spill.getRowCount() + row);
     }
 
     @Override
     public boolean relative(int rows) throws SQLException {
-        checkClosed();
-        if (statement.getResultSetType() != ResultSet.TYPE_FORWARD_ONLY) {
-            throw new SQLException("relative() not supported for ResultSet.TYPE_FORWARD_ONLY");
-        }
-        throw new SQLFeatureNotSupportedException("relative() not implemented");
+        checkScrollable("relative()");
+        return moveTo(position() + rows);
     }
 
     @Override
     public boolean previous() throws SQLException {
-        checkClosed();
-        if (statement.getResultSetType() != ResultSet.TYPE_FORWARD_ONLY) {
-            throw new SQLException("previous() not supported for TYPE_FORWARD_ONLY");
-        }
-        throw new SQLFeatureNotSupportedException("previous() not implemented");
+        checkScrollable("previous()");
+        return moveTo(position() - 1);
     }
 
     @Override
     public void setFetchDirection(int direction) throws SQLException {
         checkClosed();
-        if (getType() == ResultSet.TYPE_FORWARD_ONLY && direction != ResultSet.FETCH_FORWARD) {
+        if (direction != ResultSet.FETCH_FORWARD && direction != ResultSet.FETCH_REVERSE
+                && direction != ResultSet.FETCH_UNKNOWN) {
+            throw new SQLException("Invalid fetch direction: " + direction);
+        }
+        if (spill == null && direction != ResultSet.FETCH_FORWARD) {
             throw new SQLException("Only FETCH_FORWARD is supported for TYPE_FORWARD_ONLY");
         }
-        throw new SQLFeatureNotSupportedException("setFetchDirection() not implemented");
+        fetchDirection = direction;
     }
 
     @Override
     public int getFetchDirection() throws SQLException {
         checkClosed();
-        return ResultSet.FETCH_FORWARD;
+        return fetchDirection;
     }
 
     @Override
@@ -450,7 +898,7 @@ public class JdbcResultSet extends JdbcWrapper implements ResultSet {
     @Override
     public int getType() throws SQLException {
         checkClosed();
-        return ResultSet.TYPE_FORWARD_ONLY;
+        return spill != null ? ResultSet.TYPE_SCROLL_INSENSITIVE : ResultSet.TYPE_FORWARD_ONLY;
     }
 
     @Override
@@ -1200,12 +1648,17 @@ public class JdbcResultSet extends JdbcWrapper implements ResultSet {
     }
 
     @Override
+    @SuppressWarnings("unchecked")
     public <T> T getObject(int columnIndex, Class<T> type) throws SQLException {
         if (type == null) {
             throw new SQLException("type is null");
         }
-        Object obj = getObject(columnIndex);
-        return mapper.convertValue(obj, type);
+        ColumnVector vector = vector(columnIndex);
+        if (wasNull) {
+            return null;
+        }
+        Object converted = vector.getObject(row, type);
+        return converted != null ? (T) converted : mapper.convertValue(vector.getObject(row), type);
     }
 
     @Override
@@ -1,20 +1,47 @@
 package gr.uoa.di.madgik.elastic;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import gr.uoa.di.madgik.elastic.sql.ChannelResponseConsumerFactory;
+import gr.uoa.di.madgik.elastic.sql.SqlRequest;
+import gr.uoa.di.madgik.elastic.sql.SqlResponseConsumerFactory;
+import gr.uoa.di.madgik.elastic.sql.SqlResponseDecoder;
+import org.apache.http.client.config.RequestConfig;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
 import org.elasticsearch.client.Request;
+import org.elasticsearch.client.RequestOptions;
 import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
 import org.elasticsearch.client.RestClient;
 
+import java.nio.channels.WritableByteChannel;
 import java.sql.*;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.logging.Logger;
 
-public class JdbcStatement extends JdbcWrapper implements Statement {
+public class JdbcStatement extends JdbcWrapper implements Statement, AsyncStatement, ExportStatement {
 
     private static final Logger logger = Logger.getLogger(JdbcStatement.class.getName());
+    private static final ObjectMapper mapper = new ObjectMapper();
 
-    protected Connection connection;
+    protected JdbcConnection connection;
     protected RestClient client;
     protected ResultSet resultSet;
     protected long maxRows = 0;
+    protected int fetchSize = 0;
+    protected int queryTimeout = 0;
+    protected boolean asyncSearch;
+    protected int resultSetType = ResultSet.TYPE_FORWARD_ONLY;
+    private Deadline deadline = Deadline.NONE;
+    private volatile Runnable canceller;
+    private volatile boolean cancelled;
+    private volatile AsyncSearch search;
 
     private volatile boolean closed;
     private boolean closeOnCompletion;
@@ -22,21 +49,28 @@ public class JdbcStatement extends JdbcWrapper implements Statement {
     public JdbcStatement(JdbcConnection connection) {
         this.connection = connection;
         this.client = connection.getClient();
+        this.asyncSearch = ConnectionProperty.ASYNC_SEARCH.getBoolean(connection.getProperties());
+        connection.register(this);
     }
 
     public JdbcStatement(JdbcConnection connection, int rsType, int rsConcurrency, int rsHoldability) throws SQLException {
         this.connection = connection;
         this.client = connection.getClient();
+        this.asyncSearch = ConnectionProperty.ASYNC_SEARCH.getBoolean(connection.getProperties());
 
-        if (rsType != ResultSet.TYPE_FORWARD_ONLY) {
-            throw new SQLFeatureNotSupportedException("rsType supports only ResultSet.TYPE_FORWARD_ONLY");
+        if (rsType != ResultSet.TYPE_FORWARD_ONLY && rsType != ResultSet.TYPE_SCROLL_INSENSITIVE) {
+            throw new SQLFeatureNotSupportedException(
+                    "rsType supports only ResultSet.TYPE_FORWARD_ONLY and ResultSet.TYPE_SCROLL_INSENSITIVE");
         }
         if (rsConcurrency != ResultSet.CONCUR_READ_ONLY) {
             throw new SQLFeatureNotSupportedException("rsConcurrency supports only ResultSet.CONCUR_READ_ONLY");
         }
-        if (rsHoldability != ResultSet.CLOSE_CURSORS_AT_COMMIT) {
-            throw new SQLFeatureNotSupportedException("rsHoldability supports only ResultSet.CLOSE_CURSORS_AT_COMMIT");
+        // there are no transactions, so cursors are never affected by a commit
+        if (rsHoldability != ResultSet.CLOSE_CURSORS_AT_COMMIT && rsHoldability != ResultSet.HOLD_CURSORS_OVER_COMMIT) {
+            throw new SQLFeatureNotSupportedException("Invalid rsHoldability: " + rsHoldability);
         }
+        this.resultSetType = rsType;
+        connection.register(this);
     }
 
     protected void checkClosed() throws SQLException {
@@ -47,12 +81,129 @@ public class JdbcStatement extends JdbcWrapper implements Statement {
 
     @Override
     public ResultSet executeQuery(String sql) throws SQLException {
-        if (!execute(sql)) {
-            throw new SQLException("Error executing sql query: " + sql);
+        return executeQuery(new SqlRequest().setQuery(sql));
+    }
+
+    /**
+     * @param body the request, holding the query and its parameters
+     * @return the result set of the query
+     * @throws SQLException if the query fails
+     */
+    protected ResultSet executeQuery(SqlRequest body) throws SQLException {
+        if (!execute(body)) {
+            throw new SQLException("Error executing sql query: " + body.getQuery());
         }
         return resultSet;
     }
 
+    @Override
+    public CompletableFuture<JdbcResultSet> executeQueryAsync(String sql) {
+        return executeQueryAsync(new SqlRequest().setQuery(sql));
+    }
+
+    @Override
+    public Flow.Publisher<ColumnBatch> publishBatches(String sql, int batchSize) {
+        if (batchSize <= 0) {
+            throw new IllegalArgumentException("batchSize must be positive");
+        }
+        return ResultPublisher.batches(() -> executeQueryAsync(new SqlRequest().setQuery(sql), 0), batchSize);
+    }
+
+    @Override
+    public Flow.Publisher<Object[]> publishRows(String sql) {
+        return ResultPublisher.rows(() -> executeQueryAsync(new SqlRequest().setQuery(sql), 0));
+    }
+
+    /**
+     * Executes a query without blocking the calling thread. Queries are not
+     * hedged, nor run as async searches.
+     *
+     * @param body the request, holding the query and its parameters
+     * @return a future completed with the result set of the query
+     */
+    protected CompletableFuture<JdbcResultSet> executeQueryAsync(SqlRequest body) {
+        try {
+            return executeQueryAsync(body, ConnectionProperty.PREFETCH_PAGES.getInt(connection.getProperties()));
+        } catch (SQLException e) {
+            return CompletableFuture.failedFuture(e);
+        }
+    }
+
+    /**
+     * @param body          the request, holding the query and its parameters
+     * @param prefetchPages the number of pages to fetch ahead of the page being read
+     * @return a future completed with the result set of the query
+     */
+    CompletableFuture<JdbcResultSet> executeQueryAsync(SqlRequest body, int prefetchPages) {
+        CompletableFuture<JdbcResultSet> result = new CompletableFuture<>();
+        try {
+            checkClosed();
+            if (asyncSearch) {
+                throw new SQLFeatureNotSupportedException("Async search queries can only be executed blocking");
+            }
+            if (resultSetType == ResultSet.TYPE_SCROLL_INSENSITIVE) {
+                // the pages would be written to the spill file on an I/O thread of the client
+                throw new SQLFeatureNotSupportedException("Scrollable result sets can only be created blocking");
+            }
+            if (resultSet != null) {
+                resultSet.close();
+            }
+            body.setFetchSize(fetchSize > 0 ? fetchSize : null);
+            Deadline queryDeadline = Deadline.afterSeconds(queryTimeout);
+            deadline = queryDeadline;
+            cancelled = false;
+
+            SqlResponseDecoder decoder = new SqlResponseDecoder(fetchSize);
+            long start = System.nanoTime();
+            Cancellable cancellable = this.client.performRequestAsync(sqlRequest(body, decoder, queryDeadline), new ResponseListener() {
+                @Override
+                public void onSuccess(Response response) {
+                    try {
+                        connection.getLatencyTracker().record(System.nanoTime() - start);
+                        JdbcResultSet results = new JdbcResultSet(JdbcStatement.this, decoder, response, prefetchPages);
+                        resultSet = results;
+                        if (!result.complete(results)) {
+                            results.close();
+                        }
+                    } catch (Exception e) {
+                        result.completeExceptionally(e);
+                    }
+                }
+
+                @Override
+                public void onFailure(Exception exception) {
+                    logger.severe(exception.getMessage());
+                    result.completeExceptionally(cancelled ? cancelled(exception)
+                            : queryDeadline.isExpired() ? timeout(exception)
+                            : new SQLException("Error executing sql query: " + body.getQuery(), exception));
+                }
+            });
+            Runnable cancel = cancellable::cancel;
+            canceller = cancel;
+            result.whenComplete((results, e) -> {
+                if (canceller == cancel) {
+                    canceller = null;
+                }
+                if (result.isCancelled()) {
+                    cancellable.cancel();
+                }
+            });
+            if (queryDeadline.isBounded()) {
+                CompletableFuture.delayedExecutor(queryDeadline.remainingNanos(), TimeUnit.NANOSECONDS).execute(() -> {
+                    if (result.completeExceptionally(timeout(null))) {
+                        cancellable.cancel();
+                    }
+                });
+            }
+            if (cancelled) {
+                cancellable.cancel();
+            }
+        } catch (Exception e) {
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
     @Override
     public int executeUpdate(String sql) throws SQLException {
         checkClosed();
@@ -63,6 +214,7 @@ public class JdbcStatement extends JdbcWrapper implements Statement {
     public void close() throws SQLException {
         if (!closed) {
             closed = true;
+            connection.unregister(this);
             if (resultSet != null) {
                 resultSet.close();
             }
@@ -113,19 +265,57 @@ public class JdbcStatement extends JdbcWrapper implements Statement {
     @Override
     public int getQueryTimeout() throws SQLException {
         checkClosed();
-        return 0;
+        return queryTimeout;
     }
 
+    /**
+     * Limits the time a query may take, from its execution until its last
+     * page has been received. The limit is sent to the server as the timeout
+     * of every request of the query and of its cursor.
+     *
+     * @param seconds the time limit in seconds, 0 for no limit
+     * @throws SQLException if the statement is closed or the limit is negative
+     */
     @Override
     public void setQueryTimeout(int seconds) throws SQLException {
         checkClosed();
-        throw new UnsupportedOperationException("Unsupported Operation");
+        if (seconds < 0) {
+            throw new SQLException("Query timeout must be >= 0");
+        }
+        this.queryTimeout = seconds;
     }
 
+    /**
+     * Cancels the query being executed and releases its cursor on the
+     * server. The thread executing the query, or reading its result set
+     * past the rows already received, gets an exception.
+     *
+     * @throws SQLException if the statement is closed
+     */
     @Override
     public void cancel() throws SQLException {
         checkClosed();
-        throw new UnsupportedOperationException("Unsupported Operation");
+        abort();
+    }
+
+    /**
+     * Cancels the in-flight requests of this statement, whether closed or
+     * not. May be called from any thread.
+     */
+    void abort() {
+        cancelled = true;
+        Runnable request = canceller;
+        if (request != null) {
+            request.run();
+        }
+        AsyncSearch running = search;
+        if (running != null) {
+            running.cancel();
+        }
+        ResultSet results = resultSet;
+        if (results instanceof JdbcResultSet) {
+            ((JdbcResultSet) results).cancel();
+        }
     }
 
     @Override
@@ -148,23 +338,343 @@ public class JdbcStatement extends JdbcWrapper implements Statement {
 
     @Override
     public boolean execute(String sql) throws SQLException {
+        return execute(new SqlRequest().setQuery(sql));
+    }
+
+    /**
+     * @param body the request, holding the query and its parameters
+     * @return true if the query succeeded
+     * @throws SQLException if the statement is closed
+     */
+    protected boolean execute(SqlRequest body) throws SQLException {
         checkClosed();
-        // TODO: refactor
+        if (resultSet != null) {
+            resultSet.close();
+        }
         try {
-            Request request = new Request("GET", "/_sql");
-            request.addParameter("format", "json");
-            String requestBody = String.format("{\"query\": \"%s\"}", sql);
-            request.setJsonEntity(requestBody);
-
-            Response response = this.client.performRequest(request);
-            this.resultSet = new JdbcResultSet(this, response);
+            body.setFetchSize(fetchSize > 0 ? fetchSize : null);
+            deadline = Deadline.afterSeconds(queryTimeout);
+            cancelled = false;
+
+            SqlResponseDecoder decoder = new SqlResponseDecoder(fetchSize);
+            long start = System.nanoTime();
+            long hedgeDelay = connection.getHedgeDelay();
+            boolean async = asyncSearch;
+            Response response;
+            if (async) {
+                Properties properties = connection.getProperties();
+                body.setWaitForCompletionTimeout(ConnectionProperty.ASYNC_SEARCH_WAIT.getLong(properties) + "ms")
+                        .setKeepAlive(ConnectionProperty.ASYNC_SEARCH_KEEP_ALIVE.getLong(properties) + "ms");
+                AsyncSearch running = new AsyncSearch(this, decoder);
+                search = running;
+                if (cancelled) {
+                    running.cancel();
+                }
+                response = running.perform(sqlRequest(body, decoder, deadline), deadline);
+            } else if (hedgeDelay >= 0) {
+                HedgedRequest hedged = new HedgedRequest(this, client, decoder);
+                canceller = hedged::cancel;
+                if (cancelled) {
+                    hedged.cancel();
+                }
+                response = hedged.perform(() -> sqlRequest(body, decoder, deadline), hedgeDelay, deadline);
+            } else {
+                response = perform(sqlRequest(body, decoder, deadline));
+            }
+            if (!async) {
+                // async searches are never hedged, their polling time would only inflate the hedge delay
+                connection.getLatencyTracker().record(System.nanoTime() - start);
+            }
+            this.resultSet = new JdbcResultSet(this, decoder, response);
+            if (cancelled) {
+                // cancelled while the result set was being created
+                ((JdbcResultSet) resultSet).cancel();
+            }
             return true;
+        } catch (SQLTimeoutException | MemoryLimitExceededException e) {
+            throw e;
         } catch (Exception e) {
             logger.severe(e.getMessage());
+            if (cancelled) {
+                throw cancelled(e);
+            }
+            if (deadline.isExpired()) {
+                throw timeout(e);
+            }
+        } finally {
+            canceller = null;
+            search = null;
         }
         return false;
     }
 
+    /**
+     * Runs the queries of this statement as async searches: a query that is
+     * still running after the {@code asyncSearchWait} property elapses is
+     * left running on the server and its results are polled. Initially the
+     * {@code asyncSearch} property.
+     *
+     * @param asyncSearch true to run queries as async searches
+     * @throws SQLException if the statement is closed
+     */
+    public void setAsyncSearch(boolean asyncSearch) throws SQLException {
+        checkClosed();
+        this.asyncSearch = asyncSearch;
+    }
+
+    /**
+     * @return true if the queries of this statement run as async searches
+     * @throws SQLException if the statement is closed
+     */
+    public boolean isAsyncSearch() throws SQLException {
+        checkClosed();
+        return asyncSearch;
+    }
+
+    @Override
+    public long export(String sql, ExportFormat format, WritableByteChannel channel) throws SQLException {
+        return export(new SqlRequest().setQuery(sql), format, channel);
+    }
+
+    /**
+     * Requests the pages of a query one after the other, writing the body of
+     * each response to the channel. Text formats return the cursor of the
+     * next page in the {@code Cursor} header rather than in the body.
+     *
+     * @param body    the request, holding the query and its parameters
+     * @param format  the format of the results
+     * @param channel the channel the results are written to
+     * @return the number of bytes written
+     * @throws SQLException if the statement is closed or the query fails
+     */
+    protected long export(SqlRequest body, ExportFormat format, WritableByteChannel channel) throws SQLException {
+        checkClosed();
+        if (resultSet != null) {
+            resultSet.close();
+        }
+        body.setFetchSize(fetchSize > 0 ? fetchSize : null);
+        deadline = Deadline.afterSeconds(queryTimeout);
+        cancelled = false;
+        long written = 0;
+        String cursor = null;
+        try {
+            SqlRequest page = body;
+            do {
+                ChannelResponseConsumerFactory consumer = new ChannelResponseConsumerFactory(
+                        channel, connection.getBufferPool(), connection.getBufferLimit());
+                Response response = perform(sqlRequest(page, format.getName(), consumer, deadline));
+                written += consumer.getWritten();
+                cursor = response.getHeader("Cursor");
+                page = new SqlRequest().setCursor(cursor);
+            } while (cursor != null && !cursor.isEmpty());
+            return written;
+        } catch (Exception e) {
+            logger.severe(e.getMessage());
+            if (cursor != null && !cursor.isEmpty()) {
+                closeCursor(cursor);
+            }
+            if (e instanceof SQLTimeoutException) {
+                throw (SQLTimeoutException) e;
+            }
+            if (cancelled) {
+                throw cancelled(e);
+            }
+            if (deadline.isExpired()) {
+                throw timeout(e);
+            }
+            throw new SQLException("Error exporting sql query: " + body.getQuery(), e);
+        } finally {
+            canceller = null;
+        }
+    }
+
+    /**
+     * Sends a request and waits for its response until the deadline of the
+     * query; the request is cancelled if the deadline passes.
+     */
+    Response perform(Request request) throws Exception {
+        CompletableFuture<Response> future = new CompletableFuture<>();
+        Cancellable cancellable = this.client.performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+                future.complete(response);
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                future.completeExceptionally(exception);
+            }
+        });
+        canceller = cancellable::cancel;
+        if (cancelled) {
+            cancellable.cancel();
+        }
+        try {
+            return deadline.isBounded() ? future.get(deadline.remainingNanos(), TimeUnit.NANOSECONDS) : future.get();
+        } catch (ExecutionException e) {
+            throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+        } catch (TimeoutException e) {
+            cancellable.cancel();
+            throw timeout(e);
+        } catch (InterruptedException e) {
+            cancellable.cancel();
+            Thread.currentThread().interrupt();
+            throw e;
+        }
+    }
+
+    /**
+     * @return the deadline of the last query executed by this statement
+     */
+    Deadline getDeadline() {
+        return deadline;
+    }
+
+    /**
+     * @param cause the failure observed when the query was cancelled
+     * @return the exception reporting that the query was cancelled
+     */
+    SQLException cancelled(Throwable cause) {
+        return new SQLException("Query was cancelled", "57014", cause);
+    }
+
+    /**
+     * @param cause the failure observed when the deadline passed
+     * @return the exception reporting that the query timed out
+     */
+    SQLTimeoutException timeout(Throwable cause) {
+        return new SQLTimeoutException("Query did not complete within " + queryTimeout + " seconds", cause);
+    }
+
+    /**
+     * Asynchronously fetches the next page of a paged query.
+     *
+     * @param cursor   the cursor returned with the previous page
+     * @param decoder  the decoder of the query responses
+     * @param deadline the deadline of the query
+     * @param listener notified when the page arrives or the request fails
+     * @return the in-flight request
+     * @throws JsonProcessingException if the request body cannot be serialized
+     */
+    Cancellable fetchPageAsync(String cursor, SqlResponseDecoder decoder, Deadline deadline,
+                               ResponseListener listener) throws JsonProcessingException {
+        return this.client.performRequestAsync(sqlRequest(new SqlRequest().setCursor(cursor), decoder, deadline), listener);
+    }
+
+    /**
+     * Releases the server side resources of a cursor that has not been
+     * consumed to the end. The request is sent in the background, failures
+     * are only logged.
+     *
+     * @param cursor the cursor to close
+     */
+    void closeCursor(String cursor) {
+        try {
+            Request request = new Request("POST", "/_sql/close");
+            request.setJsonEntity(mapper.writeValueAsString(new SqlRequest().setCursor(cursor)));
+            sendInBackground(request, "failed to close cursor: ");
+        } catch (Exception e) {
+            logger.warning("failed to close cursor: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Deletes an async search, stopping it if it is still running, and its
+     * stored results. The request is sent in the background, failures are
+     * only logged.
+     *
+     * @param id the id of the async search
+     */
+    void deleteAsyncSearch(String id) {
+        sendInBackground(new Request("DELETE", "/_sql/async/delete/" + id), "failed to delete async search: ");
+    }
+
+    /**
+     * Builds the request polling for the results of an async search.
+     *
+     * @param id       the id of the async search
+     * @param decoder  the decoder of the query responses
+     * @param deadline the deadline of the query
+     * @return the request
+     */
+    Request asyncSearchRequest(String id, SqlResponseDecoder decoder, Deadline deadline) {
+        Request request = new Request("GET", "/_sql/async/" + id);
+        request.addParameter("format", connection.getResponseFormat().getName());
+        request.setOptions(requestOptions(consumer(decoder), deadline));
+        return request;
+    }
+
+    private void sendInBackground(Request request, String failureMessage) {
+        this.client.performRequestAsync(request, new ResponseListener() {
+            @Override
+            public void onSuccess(Response response) {
+            }
+
+            @Override
+            public void onFailure(Exception exception) {
+                logger.warning(failureMessage + exception.getMessage());
+            }
+        });
+    }
+
+    /**
+     * Builds a {@code /_sql} request whose response is decoded by the given
+     * decoder while it streams in. The layout is set on every page, since the
+     * server does not keep it with the cursor.
+     */
+    private Request sqlRequest(SqlRequest body, SqlResponseDecoder decoder, Deadline deadline) throws JsonProcessingException {
+        if (connection.isColumnar()) {
+            body.setColumnar(true);
+        }
+        return sqlRequest(body, connection.getResponseFormat().getName(), consumer(decoder), deadline);
+    }
+
+    /**
+     * Builds a {@code /_sql} request. The time left before the deadline is
+     * the timeout of the request on the server, of the cursor between two
+     * pages and of the socket.
+     */
+    private Request sqlRequest(SqlRequest body, String format, HttpAsyncResponseConsumerFactory consumer,
+                               Deadline deadline) throws JsonProcessingException {
+        if (deadline.isBounded()) {
+            long remaining = deadline.remainingMillis();
+            body.setRequestTimeout(remaining + "ms").setPageTimeout(remaining + "ms");
+        }
+        Request request = new Request("POST", "/_sql");
+        request.addParameter("format", format);
+        request.setJsonEntity(mapper.writeValueAsString(body));
+        request.setOptions(requestOptions(consumer, deadline));
+        return request;
+    }
+
+    private HttpAsyncResponseConsumerFactory consumer(SqlResponseDecoder decoder) {
+        return new SqlResponseConsumerFactory(decoder, connection.getBufferPool(), connection.getBufferLimit());
+    }
+
+    private RequestOptions requestOptions(HttpAsyncResponseConsumerFactory consumer, Deadline deadline) {
+        int connectTimeout = connection.getConnectTimeout();
+        int socketTimeout = connection.getSocketTimeout();
+        if (deadline.isBounded()) {
+            long remaining = deadline.remainingMillis();
+            connectTimeout = limit(connectTimeout, remaining);
+            socketTimeout = limit(socketTimeout, remaining);
+        }
+        return RequestOptions.DEFAULT.toBuilder()
+                .setRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeout)
+                        .setSocketTimeout(socketTimeout)
+                        .build())
+                .setHttpAsyncResponseConsumerFactory(consumer)
+                .build();
+    }
+
+    /**
+     * @return the smaller of a timeout, where 0 means no timeout, and a limit
+     */
+    private static int limit(int timeout, long limit) {
+        return (int) (timeout > 0 ? Math.min(timeout, limit) : Math.min(Integer.MAX_VALUE, limit));
+    }
+
     @Override
     public ResultSet getResultSet() throws SQLException {
         checkClosed();
@@ -198,13 +708,16 @@ public class JdbcStatement extends JdbcWrapper implements Statement {
     @Override
     public void setFetchSize(int rows) throws SQLException {
         checkClosed();
-        throw new UnsupportedOperationException("Unsupported Operation");
+        if (rows < 0) {
+            throw new SQLException("Fetch size must be >= 0");
+        }
+        this.fetchSize = rows;
     }
 
     @Override
     public int getFetchSize() throws SQLException {
         checkClosed();
-        return 0;
+        return fetchSize;
     }
 
     @Override
@@ -216,7 +729,7 @@ public class JdbcStatement extends JdbcWrapper implements Statement {
     @Override
     public int getResultSetType() throws SQLException {
         checkClosed();
-        return ResultSet.TYPE_FORWARD_ONLY;
+        return resultSetType;
     }
 
     @Override
@@ -0,0 +1,322 @@
+package gr.uoa.di.madgik.elastic;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpRequestInterceptor;
+import org.apache.http.HttpResponseInterceptor;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+import org.elasticsearch.client.RestClient;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Routes requests to the nodes that currently answer fastest. For every node
+ * it keeps an exponentially weighted moving average of the time to the first
+ * byte of its responses and the number of requests in flight, both recorded
+ * by HTTP interceptors installed on the client (see {@link #requestInterceptor()}
+ * and {@link #responseInterceptor()}).
+ * <p>
+ * The client rotates over the nodes left by the selector, so the selector
+ * keeps every node whose score is within {@link #TOLERANCE} of the best one:
+ * requests are spread over nodes of comparable latency, and can still be
+ * retried on another node. Nodes without measurements, e.g. nodes just found
+ * by the sniffer, are kept as well so that they get measured, but do not
+ * take part in ranking the others. The average of a node decays while it is not used, so
+ * that a node that has been slow is eventually tried again.
+ */
+public class LatencyAwareNodeSelector implements NodeSelector {
+
+    static final double TOLERANCE = 1.5;
+    private static final double ALPHA = 0.3;
+    private static final long DECAY_NANOS = TimeUnit.SECONDS.toNanos(30);
+    private static final long FAILURE_PENALTY_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final long STALE_ATTEMPT_NANOS = TimeUnit.SECONDS.toNanos(60);
+    private static final String ATTEMPT = LatencyAwareNodeSelector.class.getName() + ".attempt";
+
+    private static final ThreadLocal<Pin> pin = new ThreadLocal<>();
+
+    private final NodeSelector delegate;
+    private final Map<HttpHost, Stats> stats = new ConcurrentHashMap<>();
+
+    /**
+     * @param delegate filters the nodes before they are ranked, e.g. {@link NodeSelector#SKIP_DEDICATED_MASTERS}
+     */
+    public LatencyAwareNodeSelector(NodeSelector delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * Sends a request to a single node, the fastest one not excluded. The
+     * request must be sent by {@code send} on the calling thread, the client
+     * selecting its node before returning.
+     *
+     * @param exclude the nodes to avoid, unless no other node is available
+     * @param send    sends the request
+     * @return the node the request was sent to, or null if the client does not use this selector
+     */
+    static HttpHost selectOne(Set<HttpHost> exclude, Runnable send) {
+        Pin current = new Pin(exclude);
+        pin.set(current);
+        try {
+            send.run();
+        } finally {
+            pin.remove();
+        }
+        return current.selected;
+    }
+
+    @Override
+    public void select(Iterable<Node> nodes) {
+        delegate.select(nodes);
+        long now = System.nanoTime();
+        Pin current = pin.get();
+        if (current != null) {
+            selectOne(nodes, current, now);
+            return;
+        }
+        double best = Double.MAX_VALUE;
+        for (Node node : nodes) {
+            Stats nodeStats = stats(node.getHost());
+            if (nodeStats.isMeasured()) {
+                best = Math.min(best, nodeStats.score(now));
+            }
+        }
+        double limit = best * TOLERANCE;
+        for (Iterator<Node> it = nodes.iterator(); it.hasNext(); ) {
+            Stats nodeStats = stats(it.next().getHost());
+            if (nodeStats.isMeasured() && nodeStats.score(now) > limit) {
+                it.remove();
+            }
+        }
+    }
+
+    private void selectOne(Iterable<Node> nodes, Pin current, long now) {
+        Node best = null;
+        double bestScore = Double.MAX_VALUE;
+        for (boolean allowExcluded : new boolean[]{false, true}) {
+            for (Node node : nodes) {
+                double score = stats(node.getHost()).score(now);
+                if ((allowExcluded || !current.exclude.contains(node.getHost())) && score < bestScore) {
+                    best = node;
+                    bestScore = score;
+                }
+            }
+            if (best != null) {
+                break;
+            }
+        }
+        for (Iterator<Node> it = nodes.iterator(); it.hasNext(); ) {
+            if (it.next() != best) {
+                it.remove();
+            }
+        }
+        current.selected = best == null ? null : best.getHost();
+    }
+
+    /**
+     * @return an interceptor marking the start of every request sent by the client
+     */
+    public HttpRequestInterceptor requestInterceptor() {
+        return (request, context) -> {
+            HttpHost host = HttpCoreContext.adapt(context).getTargetHost();
+            if (host != null) {
+                HttpRequest original = request instanceof HttpRequestWrapper
+                        ? ((HttpRequestWrapper) request).getOriginal() : request;
+                Attempt attempt = new Attempt(host, original instanceof HttpUriRequest ? (HttpUriRequest) original : null);
+                stats(host).attempts.add(attempt);
+                context.setAttribute(ATTEMPT, attempt);
+            }
+        };
+    }
+
+    /**
+     * @return an interceptor recording the latency of every response received by the client
+     */
+    public HttpResponseInterceptor responseInterceptor() {
+        return (response, context) -> complete(context);
+    }
+
+    /**
+     * The listener is called once for every failed attempt, without telling
+     * which one, so the oldest attempt in flight on the node is taken as the
+     * failed one.
+     *
+     * @return a listener penalizing the nodes the client fails to reach
+     */
+    public RestClient.FailureListener failureListener(RestClient.FailureListener next) {
+        return new RestClient.FailureListener() {
+            @Override
+            public void onFailure(Node node) {
+                Stats stats = stats(node.getHost());
+                stats.attempts.stream()
+                        .min(Comparator.comparingLong(attempt -> attempt.start))
+                        .ifPresent(stats.attempts::remove);
+                stats.failed();
+                if (next != null) {
+                    next.onFailure(node);
+                }
+            }
+        };
+    }
+
+    /**
+     * @return a snapshot of the statistics of the nodes, keyed by node URI
+     */
+    public Map<String, NodeStats> getStats() {
+        long now = System.nanoTime();
+        Map<String, NodeStats> snapshot = new LinkedHashMap<>();
+        for (Map.Entry<HttpHost, Stats> entry : stats.entrySet()) {
+            snapshot.put(entry.getKey().toURI(), entry.getValue().snapshot(now));
+        }
+        return snapshot;
+    }
+
+    private void complete(HttpContext context) {
+        Object attribute = context.getAttribute(ATTEMPT);
+        if (attribute instanceof Attempt) {
+            context.removeAttribute(ATTEMPT);
+            Attempt attempt = (Attempt) attribute;
+            Stats node = stats(attempt.host);
+            if (node.attempts.remove(attempt)) {
+                node.record(System.nanoTime() - attempt.start);
+            }
+        }
+    }
+
+    private Stats stats(HttpHost host) {
+        return stats.computeIfAbsent(host, h -> new Stats());
+    }
+
+    private static class Pin {
+
+        private final Set<HttpHost> exclude;
+        private HttpHost selected;
+
+        Pin(Set<HttpHost> exclude) {
+            this.exclude = exclude;
+        }
+    }
+
+    private static class Attempt {
+
+        private final HttpHost host;
+        private final HttpUriRequest request;
+        private final long start = System.nanoTime();
+
+        Attempt(HttpHost host, HttpUriRequest request) {
+            this.host = host;
+            this.request = request;
+        }
+
+        /**
+         * @return whether the request was cancelled, in which case no response nor failure is reported
+         */
+        boolean isAborted() {
+            return request != null && request.isAborted();
+        }
+    }
+
+    private static class Stats {
+
+        private final Set<Attempt> attempts = ConcurrentHashMap.newKeySet();
+        private double average;
+        private long updated;
+        private long samples;
+        private long failures;
+
+        synchronized void record(long nanos) {
+            average = samples == 0 ? nanos : ALPHA * nanos + (1 - ALPHA) * decayed(System.nanoTime());
+            updated = System.nanoTime();
+            samples++;
+        }
+
+        synchronized void failed() {
+            average = Math.max(average * 2, FAILURE_PENALTY_NANOS);
+            updated = System.nanoTime();
+            samples++;
+            failures++;
+        }
+
+        /**
+         * @return the average decayed by the time since the last update
+         */
+        private double decayed(long now) {
+            return average * Math.exp(-(double) (now - updated) / DECAY_NANOS);
+        }
+
+        /**
+         * Cancelled attempts are dropped, as are attempts left without a
+         * response nor a failure once stale.
+         */
+        int inFlight(long now) {
+            attempts.removeIf(attempt -> attempt.isAborted() || now - attempt.start > STALE_ATTEMPT_NANOS);
+            return attempts.size();
+        }
+
+        synchronized boolean isMeasured() {
+            return samples > 0;
+        }
+
+        synchronized double score(long now) {
+            return samples == 0 ? 0 : decayed(now) * (1 + inFlight(now));
+        }
+
+        synchronized NodeStats snapshot(long now) {
+            return new NodeStats(decayed(now) / 1e6, inFlight(now), samples, failures);
+        }
+    }
+
+    /**
+     * Statistics of a node at a point in time.
+     */
+    public static class NodeStats {
+
+        private final double latencyMillis;
+        private final int inFlight;
+        private final long samples;
+        private final long failures;
+
+        NodeStats(double latencyMillis, int inFlight, long samples, long failures) {
+            this.latencyMillis = latencyMillis;
+            this.inFlight = inFlight;
+            this.samples = samples;
+            this.failures = failures;
+        }
+
+        /**
+         * @return the decayed moving average of the time to the first byte of a response
+         */
+        public double getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        public int getInFlight() {
+            return inFlight;
+        }
+
+        public long getSamples() {
+            return samples;
+        }
+
+        public long getFailures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("{latency=%.2fms, inFlight=%d, samples=%d, failures=%d}",
+                    latencyMillis, inFlight, samples, failures);
+        }
+    }
+}
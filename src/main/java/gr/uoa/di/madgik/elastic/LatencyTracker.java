@@ -0,0 +1,44 @@
+package gr.uoa.di.madgik.elastic;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the latencies of the most recent queries sent through a client, to
+ * derive the delay after which a query is hedged.
+ */
+class LatencyTracker {
+
+    private static final int CAPACITY = 1024;
+    private static final int MIN_SAMPLES = 32;
+    private static final int RESORT_INTERVAL = 64;
+
+    private final long[] samples = new long[CAPACITY];
+    private long[] sorted = new long[0];
+    private int count;
+    private int next;
+    private int unsorted;
+
+    synchronized void record(long nanos) {
+        samples[next] = nanos;
+        next = (next + 1) % CAPACITY;
+        count = Math.min(count + 1, CAPACITY);
+        unsorted++;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 100
+     * @return the latency at the percentile in nanoseconds, or -1 if too few queries have been recorded
+     */
+    synchronized long percentile(double percentile) {
+        if (count < MIN_SAMPLES) {
+            return -1;
+        }
+        if (unsorted >= RESORT_INTERVAL || sorted.length != count) {
+            sorted = Arrays.copyOf(samples, count);
+            Arrays.sort(sorted);
+            unsorted = 0;
+        }
+        int index = (int) Math.ceil(percentile / 100 * count) - 1;
+        return sorted[Math.max(0, Math.min(count - 1, index))];
+    }
+}
@@ -0,0 +1,236 @@
+package gr.uoa.di.madgik.elastic;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Accounts the heap taken by result pages: the page being read by each
+ * result set, the pages prefetched for it and the latest page of scrollable
+ * result sets. Every connection has a budget of its own, whose usage also
+ * counts against the budget of the driver, shared by all the connections.
+ * <p>
+ * A page that does not fit either limit is written to disk under the
+ * {@link Policy#SPILL} policy, and fails its query under
+ * {@link Policy#FAIL}. The page being read is always held, even if it does
+ * not fit under {@link Policy#SPILL}, since it cannot be read from disk.
+ * <p>
+ * Pages are accounted once decoded, since their size is only known then: a
+ * page being received is not bounded by the budget, so the heap taken at
+ * peak may exceed the limit by the pages being decoded, at most one per
+ * result set. The fetch size bounds those.
+ */
+class MemoryBudget implements MemoryBudgetMXBean {
+
+    private static final Logger logger = Logger.getLogger(MemoryBudget.class.getName());
+
+    static final String DOMAIN = "gr.uoa.di.madgik.elastic";
+
+    /**
+     * The budget shared by all the connections, unlimited unless set
+     * through {@link Driver#getMemoryBudget()} or JMX. It is registered as
+     * an MBean when the driver is loaded.
+     */
+    static final MemoryBudget DRIVER = new MemoryBudget("driver", 0, Policy.SPILL, null);
+
+    /**
+     * What happens to a page that does not fit the budget.
+     */
+    enum Policy {
+        /**
+         * Write the page to disk and read it back when it is reached.
+         */
+        SPILL,
+        /**
+         * Fail the query with a {@link MemoryLimitExceededException}.
+         */
+        FAIL;
+
+        /**
+         * @param name the name of the policy, case insensitive
+         * @return the policy, or null if there is no policy of that name
+         */
+        static Policy of(String name) {
+            for (Policy policy : values()) {
+                if (policy.name().equalsIgnoreCase(name.trim())) {
+                    return policy;
+                }
+            }
+            return null;
+        }
+    }
+
+    private final String name;
+    private final Policy policy;
+    private final MemoryBudget parent;
+    private volatile long limit;
+    private final AtomicLong used = new AtomicLong();
+    private final AtomicLong peak = new AtomicLong();
+    private final AtomicLong spilledPages = new AtomicLong();
+    private final AtomicLong rejectedPages = new AtomicLong();
+    private ObjectName objectName;
+
+    /**
+     * @param name   what the budget applies to, used in error messages
+     * @param limit  the maximum number of bytes, 0 for no limit
+     * @param policy what happens to a page that does not fit
+     * @param parent the budget this one also counts against, or null
+     */
+    MemoryBudget(String name, long limit, Policy policy, MemoryBudget parent) {
+        this.name = name;
+        this.limit = limit;
+        this.policy = policy;
+        this.parent = parent;
+    }
+
+    Policy getPolicy() {
+        return policy;
+    }
+
+    @Override
+    public long getLimit() {
+        return limit;
+    }
+
+    @Override
+    public void setLimit(long limit) {
+        if (limit < 0) {
+            throw new IllegalArgumentException("limit must not be negative");
+        }
+        this.limit = limit;
+    }
+
+    @Override
+    public long getUsed() {
+        return used.get();
+    }
+
+    @Override
+    public long getPeak() {
+        return peak.get();
+    }
+
+    @Override
+    public long getSpilledPages() {
+        return spilledPages.get();
+    }
+
+    @Override
+    public long getRejectedPages() {
+        return rejectedPages.get();
+    }
+
+    /**
+     * Reserves bytes if they fit both this budget and its parent.
+     *
+     * @param bytes the number of bytes
+     * @return false if the bytes do not fit, nothing is reserved then
+     */
+    boolean tryReserve(long bytes) {
+        long current;
+        do {
+            current = used.get();
+            long max = limit;
+            if (max > 0 && current + bytes > max) {
+                return false;
+            }
+        } while (!used.compareAndSet(current, current + bytes));
+        if (parent != null && !parent.tryReserve(bytes)) {
+            used.addAndGet(-bytes);
+            return false;
+        }
+        peak.accumulateAndGet(current + bytes, Math::max);
+        return true;
+    }
+
+    /**
+     * Reserves bytes whether they fit or not.
+     *
+     * @param bytes the number of bytes
+     */
+    void reserve(long bytes) {
+        peak.accumulateAndGet(used.addAndGet(bytes), Math::max);
+        if (parent != null) {
+            parent.reserve(bytes);
+        }
+    }
+
+    /**
+     * @param bytes the number of bytes reserved earlier
+     */
+    void release(long bytes) {
+        used.addAndGet(-bytes);
+        if (parent != null) {
+            parent.release(bytes);
+        }
+    }
+
+    /**
+     * Records a page written to disk because it did not fit.
+     */
+    void spilled() {
+        spilledPages.incrementAndGet();
+        if (parent != null) {
+            parent.spilled();
+        }
+    }
+
+    /**
+     * Records a page rejected because it did not fit.
+     *
+     * @param bytes the size of the page
+     * @return the exception failing the query of the page
+     */
+    MemoryLimitExceededException rejected(long bytes) {
+        MemoryBudget exceeded = null;
+        for (MemoryBudget budget = this; budget != null; budget = budget.parent) {
+            budget.rejectedPages.incrementAndGet();
+            if (exceeded == null && budget.limit > 0 && budget.used.get() + bytes > budget.limit) {
+                exceeded = budget;
+            }
+        }
+        if (exceeded == null) {
+            // pages were released in the meantime
+            exceeded = this;
+        }
+        return new MemoryLimitExceededException(String.format(Locale.ROOT,
+                "Result page of %d bytes exceeds the memory limit of the %s: %d of %d bytes in use",
+                bytes, exceeded.name, exceeded.getUsed(), exceeded.getLimit()));
+    }
+
+    /**
+     * Registers this budget with the platform MBean server. Failures are
+     * logged, since the budget works without being registered.
+     *
+     * @param properties the key properties of the name of the MBean
+     */
+    void register(String properties) {
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":" + properties);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (JMException | RuntimeException e) {
+            logger.warning("failed to register memory budget MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Unregisters this budget from the platform MBean server, if it was registered.
+     */
+    void unregister() {
+        if (objectName == null) {
+            return;
+        }
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            server.unregisterMBean(objectName);
+        } catch (JMException e) {
+            logger.warning("failed to unregister memory budget MBean: " + e.getMessage());
+        }
+        objectName = null;
+    }
+}
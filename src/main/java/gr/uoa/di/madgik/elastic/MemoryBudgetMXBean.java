@@ -0,0 +1,45 @@
+package gr.uoa.di.madgik.elastic;
+
+/**
+ * Reports the heap taken by the result pages of a connection, or of all the
+ * connections of the driver, and lets its limit be changed at runtime. The
+ * sizes are estimates of the bytes retained by the decoded values.
+ *
+ * @see JdbcConnection#getMemoryBudget()
+ * @see Driver#getMemoryBudget()
+ */
+public interface MemoryBudgetMXBean {
+
+    /**
+     * @return the maximum number of bytes the result pages may take, 0 for no limit
+     */
+    long getLimit();
+
+    /**
+     * Changes the limit. Pages already held are not affected, but no more
+     * pages are held until the usage drops below the new limit.
+     *
+     * @param limit the maximum number of bytes the result pages may take, 0 for no limit
+     */
+    void setLimit(long limit);
+
+    /**
+     * @return the number of bytes taken by the result pages currently held
+     */
+    long getUsed();
+
+    /**
+     * @return the highest number of bytes taken by the result pages at any time
+     */
+    long getPeak();
+
+    /**
+     * @return the number of pages written to disk because they did not fit the limit
+     */
+    long getSpilledPages();
+
+    /**
+     * @return the number of pages that failed their query because they did not fit the limit
+     */
+    long getRejectedPages();
+}
@@ -0,0 +1,24 @@
+package gr.uoa.di.madgik.elastic;
+
+import java.sql.SQLNonTransientException;
+
+/**
+ * Thrown when a result page does not fit the memory limit of the connection
+ * or of the driver and the {@code memoryPolicy} of the connection is
+ * {@code fail}. The rest of the results of the query can no longer be read.
+ *
+ * @see MemoryBudgetMXBean
+ */
+public class MemoryLimitExceededException extends SQLNonTransientException {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The SQL state of the exception, insufficient resources: out of memory.
+     */
+    public static final String SQL_STATE = "53200";
+
+    public MemoryLimitExceededException(String reason) {
+        super(reason, SQL_STATE);
+    }
+}
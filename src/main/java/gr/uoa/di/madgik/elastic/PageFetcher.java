@@ -0,0 +1,434 @@
+package gr.uoa.di.madgik.elastic;
+
+import gr.uoa.di.madgik.elastic.sql.SqlResponseDecoder;
+import gr.uoa.di.madgik.elastic.sql.SqlResponseResults;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Logger;
+
+/**
+ * Fetches the pages of a cursor in the background. Up to {@code depth} pages
+ * are requested ahead of the page being read, so that the caller does not wait
+ * for a network round trip at every page boundary.
+ * <p>
+ * Since the cursor of a page is only known once the previous page has been
+ * received, at most one request is in flight at any time. Pages are taken
+ * either blocking with {@link #take()} or with {@link #takeAsync()}.
+ * <p>
+ * Received pages are accounted against the {@link MemoryBudget} of the
+ * connection until they are taken. A page that does not fit is written to a
+ * {@link SpillFile} and read back when it is taken, or fails the query,
+ * depending on the policy of the budget.
+ */
+class PageFetcher {
+
+    private static final Logger logger = Logger.getLogger(PageFetcher.class.getName());
+    private static final Runnable NOTHING = () -> {
+    };
+    /**
+     * Queued in place of a page written to the spill file.
+     */
+    private static final SqlResponseResults SPILLED = new SqlResponseResults();
+
+    private final JdbcStatement statement;
+    private final SqlResponseDecoder decoder;
+    private final int depth;
+    private final Deadline deadline;
+    private final MemoryBudget budget;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition changed = lock.newCondition();
+    private final Deque<SqlResponseResults> pages = new ArrayDeque<>();
+
+    private String cursor;
+    private String requested;
+    private Cancellable inFlight;
+    private Exception failure;
+    private boolean closed;
+    private CompletableFuture<SqlResponseResults> waiter;
+    private SpillFile spill;
+    private int unspilled;
+
+    /**
+     * @param statement the statement that issued the query
+     * @param decoder   the decoder of the query responses
+     * @param cursor    the cursor of the first page
+     * @param depth     the number of pages to fetch ahead, 0 fetches on demand
+     * @param deadline  the deadline of the query
+     */
+    PageFetcher(JdbcStatement statement, SqlResponseDecoder decoder, String cursor, int depth, Deadline deadline) {
+        this.statement = statement;
+        this.decoder = decoder;
+        this.cursor = cursor;
+        this.depth = depth;
+        this.deadline = deadline;
+        this.budget = statement.connection.budget();
+        lock.lock();
+        try {
+            if (depth > 0) {
+                fetch();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the next page, waiting for it if it has not arrived yet.
+     *
+     * @return the next page or null when there are no more pages
+     * @throws SQLException if fetching the page failed or the wait was interrupted
+     * @throws SQLTimeoutException if the deadline of the query passed, the cursor is then closed
+     */
+    SqlResponseResults take() throws SQLException {
+        lock.lock();
+        try {
+            while (pages.isEmpty() && failure == null) {
+                if (inFlight == null) {
+                    if (cursor == null || closed) {
+                        return null;
+                    }
+                    fetch();
+                }
+                if (!deadline.isBounded()) {
+                    changed.await();
+                } else if (changed.awaitNanos(deadline.remainingNanos()) <= 0 && pages.isEmpty() && failure == null) {
+                    close();
+                    throw statement.timeout(null);
+                }
+            }
+            if (failure != null) {
+                throw failure();
+            }
+            SqlResponseResults page = poll();
+            if (pages.size() < depth) {
+                fetch();
+            }
+            return page;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for next page", e);
+        } catch (IOException e) {
+            throw new SQLException("failed to read spilled page", e);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Returns the next page without blocking the calling thread. Only one
+     * page can be awaited at a time.
+     *
+     * @return a future completed with the next page once it has arrived, or
+     * with null when there are no more pages
+     */
+    CompletableFuture<SqlResponseResults> takeAsync() {
+        CompletableFuture<SqlResponseResults> page = new CompletableFuture<>();
+        Runnable completion;
+        lock.lock();
+        try {
+            if (waiter != null) {
+                page.completeExceptionally(new SQLException("The next page is already being waited for"));
+                return page;
+            }
+            waiter = page;
+            if (pages.isEmpty()) {
+                fetch();
+            }
+            completion = deliver();
+        } finally {
+            lock.unlock();
+        }
+        completion.run();
+        if (!page.isDone() && deadline.isBounded()) {
+            CompletableFuture.delayedExecutor(deadline.remainingNanos(), TimeUnit.NANOSECONDS)
+                    .execute(() -> expire(page));
+        }
+        return page;
+    }
+
+    private void expire(CompletableFuture<SqlResponseResults> page) {
+        lock.lock();
+        try {
+            if (waiter != page) {
+                return;
+            }
+            waiter = null;
+        } finally {
+            lock.unlock();
+        }
+        close();
+        page.completeExceptionally(statement.timeout(null));
+    }
+
+    /**
+     * Hands the next page, the failure or the end of the pages to the page
+     * awaited by {@link #takeAsync()}, if any. Must be called holding the
+     * lock; the returned action completes the future and must be run once
+     * the lock is released.
+     */
+    private Runnable deliver() {
+        CompletableFuture<SqlResponseResults> page = waiter;
+        if (page == null) {
+            return NOTHING;
+        }
+        if (failure != null) {
+            waiter = null;
+            SQLException exception = failure();
+            return () -> page.completeExceptionally(exception);
+        }
+        if (!pages.isEmpty()) {
+            waiter = null;
+            SqlResponseResults next;
+            try {
+                next = poll();
+            } catch (IOException e) {
+                return () -> page.completeExceptionally(new SQLException("failed to read spilled page", e));
+            }
+            if (pages.size() < depth) {
+                fetch();
+            }
+            return () -> page.complete(next);
+        }
+        if (inFlight == null && (cursor == null || closed)) {
+            waiter = null;
+            return () -> page.complete(null);
+        }
+        return NOTHING;
+    }
+
+    /**
+     * Must be called holding the lock.
+     *
+     * @return the exception reporting why the pages could not be fetched
+     */
+    private SQLException failure() {
+        if (failure instanceof CancellationException) {
+            return statement.cancelled(failure);
+        }
+        if (deadline.isExpired()) {
+            close();
+            return statement.timeout(failure);
+        }
+        if (failure instanceof MemoryLimitExceededException) {
+            return (MemoryLimitExceededException) failure;
+        }
+        return new SQLException("failed to fetch next page", failure);
+    }
+
+    /**
+     * Removes the next page from the queue, reading it back if it was
+     * spilled. The page is no longer accounted for by the fetcher. Must be
+     * called holding the lock.
+     *
+     * @return the page
+     * @throws IOException if the page was spilled and cannot be read back
+     */
+    private SqlResponseResults poll() throws IOException {
+        SqlResponseResults page = pages.poll();
+        if (page == SPILLED) {
+            return spill.read(unspilled++);
+        }
+        budget.release(page.estimateSize());
+        return page;
+    }
+
+    /**
+     * Holds a received page that did not fit the memory budget: spills or
+     * rejects it, depending on the policy of the budget. Must be called
+     * holding the lock.
+     *
+     * @param page     the received page
+     * @param reserved whether the page fit the budget
+     * @return the page to queue, {@link #SPILLED} if it was spilled, or null
+     * if it was rejected, the failure is then set
+     */
+    private SqlResponseResults hold(SqlResponseResults page, boolean reserved) {
+        long size = page.estimateSize();
+        if (reserved) {
+            return page;
+        }
+        if (budget.getPolicy() == MemoryBudget.Policy.FAIL) {
+            failure = budget.rejected(size);
+            return null;
+        }
+        if (page.getRowCount() == 0) {
+            // empty pages are not kept by the spill file
+            budget.reserve(size);
+            return page;
+        }
+        try {
+            if (spill == null) {
+                spill = new SpillFile(statement.connection.getSpillDirectory(), decoder);
+            }
+            spill.append(page);
+        } catch (IOException e) {
+            failure = e;
+            return null;
+        }
+        budget.spilled();
+        return SPILLED;
+    }
+
+    /**
+     * Stops fetching pages and releases the cursor on the server; taking a
+     * page then fails.
+     */
+    void cancel() {
+        lock.lock();
+        try {
+            if (!closed && failure == null) {
+                failure = new CancellationException("query was cancelled");
+            }
+        } finally {
+            lock.unlock();
+        }
+        close();
+    }
+
+    /**
+     * Stops prefetching and releases the cursor on the server.
+     */
+    void close() {
+        String toClose;
+        Runnable completion;
+        lock.lock();
+        try {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            for (SqlResponseResults page : pages) {
+                if (page != SPILLED) {
+                    budget.release(page.estimateSize());
+                }
+            }
+            pages.clear();
+            if (spill != null) {
+                try {
+                    spill.close();
+                } catch (IOException e) {
+                    logger.warning("failed to delete spill file: " + e.getMessage());
+                }
+                spill = null;
+            }
+            if (inFlight != null) {
+                inFlight.cancel();
+                inFlight = null;
+                toClose = requested;
+            } else {
+                toClose = cursor;
+            }
+            cursor = null;
+            changed.signalAll();
+            completion = deliver();
+        } finally {
+            lock.unlock();
+        }
+        completion.run();
+        if (toClose != null) {
+            statement.closeCursor(toClose);
+        }
+    }
+
+    /**
+     * Issues the request for the page after the last received one, unless a
+     * request is already in flight. Must be called holding the lock.
+     */
+    private void fetch() {
+        if (closed || inFlight != null || cursor == null || failure != null) {
+            return;
+        }
+        requested = cursor;
+        try {
+            inFlight = statement.fetchPageAsync(requested, decoder, deadline, new Listener());
+        } catch (Exception e) {
+            failure = e;
+            changed.signalAll();
+        }
+    }
+
+    private class Listener implements ResponseListener {
+
+        @Override
+        public void onSuccess(Response response) {
+            SqlResponseResults page;
+            try {
+                page = decoder.decode(response);
+            } catch (Exception e) {
+                onFailure(e);
+                return;
+            }
+            boolean reserved = budget.tryReserve(page.estimateSize());
+            if (!reserved && budget.getPolicy() == MemoryBudget.Policy.SPILL && page.getRowCount() > 0) {
+                // written to the spill file off the I/O thread; the request stays
+                // in flight until then, so that the pages are queued in order
+                CompletableFuture.runAsync(() -> receive(page, false));
+            } else {
+                receive(page, reserved);
+            }
+        }
+
+        private void receive(SqlResponseResults page, boolean reserved) {
+            String orphan = null;
+            Runnable completion;
+            lock.lock();
+            try {
+                inFlight = null;
+                if (closed) {
+                    if (reserved) {
+                        budget.release(page.estimateSize());
+                    }
+                    orphan = page.getCursor();
+                } else {
+                    SqlResponseResults held = hold(page, reserved);
+                    if (held != null) {
+                        pages.add(held);
+                    }
+                    cursor = page.getCursor();
+                    if (pages.size() < depth) {
+                        fetch();
+                    }
+                    changed.signalAll();
+                }
+                completion = deliver();
+            } finally {
+                lock.unlock();
+            }
+            completion.run();
+            if (orphan != null) {
+                statement.closeCursor(orphan);
+            }
+        }
+
+        @Override
+        public void onFailure(Exception exception) {
+            Runnable completion;
+            lock.lock();
+            try {
+                inFlight = null;
+                if (!closed) {
+                    logger.severe(exception.getMessage());
+                    failure = exception;
+                }
+                changed.signalAll();
+                completion = deliver();
+            } finally {
+                lock.unlock();
+            }
+            completion.run();
+        }
+    }
+}
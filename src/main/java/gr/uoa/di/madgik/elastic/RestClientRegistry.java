@@ -0,0 +1,175 @@
+package gr.uoa.di.madgik.elastic;
+
+import org.apache.http.nio.conn.NHttpClientConnectionManager;
+import org.elasticsearch.client.RestClient;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Shares {@link RestClient}s between the connections of the driver. Each
+ * client owns I/O threads and a pool of HTTP connections, so connections to
+ * the same cluster with the same credentials and transport settings use a
+ * single client. Clients are reference counted and closed when the last
+ * connection using them is closed.
+ */
+class RestClientRegistry {
+
+    private static final Logger logger = Logger.getLogger(RestClientRegistry.class.getName());
+
+    private static final Map<List<Object>, Lease.Entry> clients = new HashMap<>();
+
+    /**
+     * Creates the client of a key that is not in the registry.
+     */
+    interface Factory {
+
+        /**
+         * @param attachments receives the objects bound to the client; those
+         *                    that are {@link Closeable} are closed before it.
+         *                    If the client cannot be created, they are closed
+         *                    and the {@link NHttpClientConnectionManager}s
+         *                    among them are shut down, so that the factory
+         *                    can attach what it creates as it goes
+         * @return the client
+         * @throws Exception if the client cannot be created
+         */
+        RestClient create(List<Object> attachments) throws Exception;
+    }
+
+    /**
+     * Returns a lease on the client registered under a key, creating the
+     * client if there is none.
+     *
+     * @param key     identifies the client: the normalized hosts, credentials and transport settings
+     * @param factory creates the client if needed
+     * @return the lease, to be released when the client is no longer used
+     * @throws Exception if the client cannot be created
+     */
+    static Lease acquire(List<Object> key, Factory factory) throws Exception {
+        synchronized (clients) {
+            Lease.Entry entry = clients.get(key);
+            if (entry == null) {
+                List<Object> attachments = new ArrayList<>();
+                RestClient client;
+                try {
+                    client = factory.create(attachments);
+                } catch (Exception | Error e) {
+                    discard(attachments);
+                    throw e;
+                }
+                entry = new Lease.Entry(key, client, attachments);
+                clients.put(key, entry);
+            }
+            entry.references++;
+            return new Lease(entry);
+        }
+    }
+
+    /**
+     * Releases what a factory attached before failing, the last attached first.
+     */
+    private static void discard(List<Object> attachments) {
+        for (int i = attachments.size() - 1; i >= 0; i--) {
+            Object attachment = attachments.get(i);
+            try {
+                if (attachment instanceof Closeable) {
+                    ((Closeable) attachment).close();
+                } else if (attachment instanceof NHttpClientConnectionManager) {
+                    ((NHttpClientConnectionManager) attachment).shutdown();
+                }
+            } catch (IOException | RuntimeException e) {
+                logger.warning("failed to release client resources: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @return the number of clients in the registry
+     */
+    static int size() {
+        synchronized (clients) {
+            return clients.size();
+        }
+    }
+
+    /**
+     * A reference to a shared client, held by a single connection.
+     */
+    static class Lease {
+
+        private final Entry entry;
+        private boolean released;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        RestClient getClient() {
+            return entry.client;
+        }
+
+        /**
+         * @param type the type of the attachment
+         * @return the first object of the given type bound to the client, or null
+         */
+        <T> T getAttachment(Class<T> type) {
+            for (Object attachment : entry.attachments) {
+                if (type.isInstance(attachment)) {
+                    return type.cast(attachment);
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Drops this reference and closes the client if it was the last one.
+         * Releasing a lease more than once has no effect.
+         */
+        void release() {
+            synchronized (clients) {
+                if (released) {
+                    return;
+                }
+                released = true;
+                if (--entry.references > 0) {
+                    return;
+                }
+                clients.remove(entry.key);
+            }
+            for (Object attachment : entry.attachments) {
+                if (attachment instanceof Closeable) {
+                    close((Closeable) attachment);
+                }
+            }
+            close(entry.client);
+        }
+
+        private static void close(Closeable closeable) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                logger.warning("failed to close client: " + e.getMessage());
+            }
+        }
+
+        private static class Entry {
+
+            private final List<Object> key;
+            private final RestClient client;
+            private final List<Object> attachments;
+            private int references;
+
+            Entry(List<Object> key, RestClient client, List<Object> attachments) {
+                this.key = key;
+                this.client = client;
+                this.attachments = attachments;
+            }
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package gr.uoa.di.madgik.elastic;
+
+import gr.uoa.di.madgik.elastic.sql.ColumnVector;
+
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+import java.util.logging.Logger;
+
+/**
+ * Publishes the results of a query as the subscriber demands them. The query
+ * is executed on the first request and each page is fetched only once the
+ * rows of the previous one have been published and more are requested, so
+ * at most one page is held at a time. Cancelling the subscription cancels
+ * the query or closes its cursor.
+ * <p>
+ * A publisher executes its query once, for a single subscriber.
+ *
+ * @param <T> the type of the items, rows or batches
+ */
+abstract class ResultPublisher<T> implements Flow.Publisher<T> {
+
+    private static final Logger logger = Logger.getLogger(ResultPublisher.class.getName());
+
+    private final Supplier<CompletableFuture<JdbcResultSet>> query;
+    private final AtomicBoolean subscribed = new AtomicBoolean();
+
+    /**
+     * @param query executes the query, without prefetching pages
+     */
+    ResultPublisher(Supplier<CompletableFuture<JdbcResultSet>> query) {
+        this.query = query;
+    }
+
+    /**
+     * @param query     executes the query, without prefetching pages
+     * @param batchSize the maximum number of rows of a batch
+     * @return a publisher of the rows of the query in batches
+     */
+    static Flow.Publisher<ColumnBatch> batches(Supplier<CompletableFuture<JdbcResultSet>> query, int batchSize) {
+        return new ResultPublisher<ColumnBatch>(query) {
+            @Override
+            int maxRows(long requested) {
+                return batchSize;
+            }
+
+            @Override
+            long publish(ColumnBatch batch, Flow.Subscriber<? super ColumnBatch> subscriber) {
+                subscriber.onNext(batch);
+                return 1;
+            }
+        };
+    }
+
+    /**
+     * @param query executes the query, without prefetching pages
+     * @return a publisher of the rows of the query, each an array of the values of its columns
+     */
+    static Flow.Publisher<Object[]> rows(Supplier<CompletableFuture<JdbcResultSet>> query) {
+        return new ResultPublisher<Object[]>(query) {
+            @Override
+            int maxRows(long requested) {
+                return (int) Math.min(requested, Integer.MAX_VALUE);
+            }
+
+            @Override
+            long publish(ColumnBatch batch, Flow.Subscriber<? super Object[]> subscriber) throws SQLException {
+                ColumnVector[] vectors = new ColumnVector[batch.getColumnCount()];
+                for (int i = 0; i < vectors.length; i++) {
+                    vectors[i] = batch.getVector(i + 1);
+                }
+                for (int row = batch.getOffset(); row < batch.getOffset() + batch.getRowCount(); row++) {
+                    Object[] values = new Object[vectors.length];
+                    for (int i = 0; i < vectors.length; i++) {
+                        values[i] = vectors[i].getObject(row);
+                    }
+                    subscriber.onNext(values);
+                }
+                return batch.getRowCount();
+            }
+        };
+    }
+
+    /**
+     * @param requested the number of items requested
+     * @return the maximum number of rows of the next batch
+     */
+    abstract int maxRows(long requested);
+
+    /**
+     * Publishes the items of a batch, no more than {@link #maxRows(long)} allows.
+     *
+     * @return the number of items published
+     */
+    abstract long publish(ColumnBatch batch, Flow.Subscriber<? super T> subscriber) throws SQLException;
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        if (subscriber == null) {
+            throw new NullPointerException("subscriber is null");
+        }
+        if (!subscribed.compareAndSet(false, true)) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            subscriber.onError(new IllegalStateException("The query of this publisher has already been subscribed to"));
+            return;
+        }
+        Subscription subscription = new Subscription(subscriber);
+        subscriber.onSubscribe(subscription);
+    }
+
+    /**
+     * Runs the query for a subscriber. All the work is done in
+     * {@link #drain()}, by one thread at a time: the thread that requests
+     * items or the thread that completes a pending query or page.
+     */
+    private class Subscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super T> subscriber;
+        private final AtomicLong requested = new AtomicLong();
+        private final AtomicInteger work = new AtomicInteger();
+        private volatile boolean cancelled;
+        private volatile Throwable error;
+
+        private CompletableFuture<JdbcResultSet> execution;
+        private JdbcResultSet resultSet;
+        private CompletableFuture<ColumnBatch> next;
+        private boolean done;
+
+        Subscription(Flow.Subscriber<? super T> subscriber) {
+            this.subscriber = subscriber;
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                // signalled from the drain loop, not to overlap with onNext
+                if (error == null) {
+                    error = new IllegalArgumentException("Non-positive request: " + n);
+                }
+                drain();
+                return;
+            }
+            requested.getAndAccumulate(n, (current, added) -> current + added < 0 ? Long.MAX_VALUE : current + added);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        private void drain() {
+            if (work.getAndIncrement() != 0) {
+                return;
+            }
+            do {
+                try {
+                    step();
+                } catch (Exception e) {
+                    fail(e);
+                }
+            } while (work.decrementAndGet() != 0);
+        }
+
+        /**
+         * Makes as much progress as possible without waiting.
+         */
+        private void step() throws Exception {
+            while (!done) {
+                if (cancelled) {
+                    release();
+                    return;
+                }
+                if (error != null) {
+                    fail(error);
+                    return;
+                }
+                if (execution == null) {
+                    if (requested.get() == 0) {
+                        return;
+                    }
+                    execution = query.get();
+                    execution.whenComplete((results, e) -> drain());
+                }
+                if (resultSet == null) {
+                    if (!execution.isDone()) {
+                        return;
+                    }
+                    resultSet = execution.join();
+                }
+                if (next == null) {
+                    long demand = requested.get();
+                    if (demand == 0) {
+                        return;
+                    }
+                    next = resultSet.nextBatchAsync(maxRows(demand));
+                    if (!next.isDone()) {
+                        next.whenComplete((batch, e) -> drain());
+                    }
+                }
+                if (!next.isDone()) {
+                    return;
+                }
+                ColumnBatch batch = next.join();
+                next = null;
+                if (batch == null) {
+                    done = true;
+                    release();
+                    subscriber.onComplete();
+                    return;
+                }
+                long published = publish(batch, subscriber);
+                requested.getAndUpdate(current -> current == Long.MAX_VALUE ? current : current - published);
+            }
+        }
+
+        private void fail(Throwable e) {
+            if (done) {
+                return;
+            }
+            done = true;
+            release();
+            if (!cancelled) {
+                subscriber.onError(e instanceof CompletionException && e.getCause() != null ? e.getCause() : e);
+            }
+        }
+
+        /**
+         * Cancels the query if still running, or closes its result set.
+         */
+        private void release() {
+            done = true;
+            if (execution != null && !execution.isDone()) {
+                execution.cancel(false);
+            }
+            if (resultSet != null) {
+                try {
+                    resultSet.close();
+                } catch (SQLException e) {
+                    logger.warning("failed to close result set: " + e.getMessage());
+                }
+            } else if (execution != null && execution.isDone() && !execution.isCompletedExceptionally()) {
+                execution.thenAccept(results -> {
+                    try {
+                        results.close();
+                    } catch (SQLException e) {
+                        logger.warning("failed to close result set: " + e.getMessage());
+                    }
+                });
+            }
+        }
+    }
+}
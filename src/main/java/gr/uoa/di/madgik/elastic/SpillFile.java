@@ -0,0 +1,167 @@
+package gr.uoa.di.madgik.elastic;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import gr.uoa.di.madgik.elastic.sql.ColumnVector;
+import gr.uoa.di.madgik.elastic.sql.ResponseFormat;
+import gr.uoa.di.madgik.elastic.sql.SqlResponseDecoder;
+import gr.uoa.di.madgik.elastic.sql.SqlResponseResults;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The pages of a scrollable result set, kept in a temporary file rather than
+ * on the heap. Each page is appended as a SMILE encoded {@code /_sql}
+ * response holding only its rows, so that it is read back by the decoder of
+ * the query into the same vectors it was received into. Pages are read back
+ * with positional reads into a buffer reused across reads, as large as the
+ * largest page read, rather than through memory mappings, which would stay
+ * open until garbage collected and keep the file from being deleted on
+ * some platforms.
+ * <p>
+ * An index of the offset and first row of every page locates the page of
+ * any row; a row index is not kept, since it would take heap space for
+ * every row. The file is deleted when it is closed.
+ */
+class SpillFile implements Closeable {
+
+    private static final ObjectMapper mapper = new ObjectMapper(new SmileFactory());
+
+    private final SqlResponseDecoder decoder;
+    private final FileChannel channel;
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private ByteBuffer readBuffer = ByteBuffer.allocate(0);
+
+    private long[] offsets = new long[16];
+    private long[] firstRows = new long[16];
+    private int pageCount;
+    private long rowCount;
+
+    /**
+     * @param directory the directory of the file, or null for the temporary directory
+     * @param decoder   the decoder of the query, which reads the pages back
+     * @throws IOException if the file cannot be created
+     */
+    SpillFile(Path directory, SqlResponseDecoder decoder) throws IOException {
+        this.decoder = decoder;
+        Path file = directory == null
+                ? Files.createTempFile("elastic-jdbc-", ".spill")
+                : Files.createTempFile(directory, "elastic-jdbc-", ".spill");
+        this.channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE,
+                StandardOpenOption.DELETE_ON_CLOSE);
+    }
+
+    /**
+     * @return the number of pages in the file
+     */
+    int getPageCount() {
+        return pageCount;
+    }
+
+    /**
+     * @return the number of rows of all the pages in the file
+     */
+    long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * @param page the index of a page
+     * @return the index of the first row of the page in the results
+     */
+    long getFirstRow(int page) {
+        return firstRows[page];
+    }
+
+    /**
+     * @param row the index of a row in the results, less than {@link #getRowCount()}
+     * @return the index of the page holding the row
+     */
+    int pageOf(long row) {
+        int page = Arrays.binarySearch(firstRows, 0, pageCount, row);
+        return page >= 0 ? page : -page - 2;
+    }
+
+    /**
+     * Appends a page. Empty pages are not kept.
+     *
+     * @param page the page
+     * @throws IOException if the page cannot be written
+     */
+    void append(SqlResponseResults page) throws IOException {
+        int rows = page.getRowCount();
+        if (rows == 0) {
+            return;
+        }
+        ColumnVector[] vectors = page.getVectors();
+        buffer.reset();
+        try (JsonGenerator generator = mapper.getFactory().createGenerator(buffer)) {
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("rows");
+            for (int row = 0; row < rows; row++) {
+                generator.writeStartArray();
+                for (ColumnVector vector : vectors) {
+                    generator.writeObject(vector.getObject(row));
+                }
+                generator.writeEndArray();
+            }
+            generator.writeEndArray();
+            generator.writeEndObject();
+        }
+        long offset = channel.size();
+        ByteBuffer bytes = ByteBuffer.wrap(buffer.toByteArray());
+        long position = offset;
+        while (bytes.hasRemaining()) {
+            position += channel.write(bytes, position);
+        }
+        if (pageCount + 1 >= offsets.length) {
+            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+            firstRows = Arrays.copyOf(firstRows, firstRows.length * 2);
+        }
+        offsets[pageCount] = offset;
+        offsets[pageCount + 1] = position;
+        firstRows[pageCount] = rowCount;
+        pageCount++;
+        rowCount += rows;
+    }
+
+    /**
+     * Reads a page back into new vectors.
+     *
+     * @param page the index of the page
+     * @return the page
+     * @throws IOException if the page cannot be read
+     */
+    SqlResponseResults read(int page) throws IOException {
+        int length = Math.toIntExact(offsets[page + 1] - offsets[page]);
+        if (readBuffer.capacity() < length) {
+            readBuffer = ByteBuffer.allocate(length);
+        }
+        readBuffer.clear().limit(length);
+        long position = offsets[page];
+        while (readBuffer.hasRemaining()) {
+            int read = channel.read(readBuffer, position);
+            if (read < 0) {
+                throw new EOFException("spill file ends within page " + page);
+            }
+            position += read;
+        }
+        return decoder.decode(new ByteArrayInputStream(readBuffer.array(), 0, length), ResponseFormat.SMILE);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
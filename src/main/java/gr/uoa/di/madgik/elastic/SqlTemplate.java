@@ -0,0 +1,153 @@
+package gr.uoa.di.madgik.elastic;
+
+import gr.uoa.di.madgik.elastic.sql.SqlParameter;
+
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * The SQL text of a prepared statement, parsed once when the statement is
+ * prepared. Locates the {@code ?} placeholders outside of quoted text and
+ * comments, and the comparisons that are rewritten when bound to null, so
+ * that binding the parameters of an execution is a single pass.
+ */
+class SqlTemplate {
+
+    private static final String GROUP_BY = "GROUP BY";
+    private static final Pattern QUALIFIED_GROUP_BY = Pattern.compile("\\s+[a-z0-9]+\\.[a-z0-9]+\\..*");
+
+    private final String text;
+    private final int parameterCount;
+    private final int[] slots;
+    private final int[] nullCuts;
+    private final boolean[] notEquals;
+
+    private SqlTemplate(String text, int parameterCount, int[] slots) {
+        this.text = text;
+        this.parameterCount = parameterCount;
+        this.slots = slots;
+        this.nullCuts = new int[slots.length];
+        this.notEquals = new boolean[slots.length];
+        for (int i = 0; i < slots.length; i++) {
+            int end = slots[i];
+            while (end > 0 && Character.isWhitespace(text.charAt(end - 1))) {
+                end--;
+            }
+            char before = end > 1 ? text.charAt(end - 2) : ' ';
+            if (end > 0 && text.charAt(end - 1) == '=' && before == '!') {
+                nullCuts[i] = end - 2;
+                notEquals[i] = true;
+            } else if (end > 0 && text.charAt(end - 1) == '=' && before != '<' && before != '>') {
+                nullCuts[i] = end - 1;
+            } else {
+                nullCuts[i] = -1;
+            }
+        }
+    }
+
+    /**
+     * @param sql the SQL text of the statement
+     * @return the parsed template
+     */
+    static SqlTemplate compile(String sql) {
+        int[] slots = new int[8];
+        int count = 0;
+        int groupBy = -1;
+        int n = sql.length();
+        int i = 0;
+        while (i < n) {
+            char c = sql.charAt(i);
+            if (c == '\'' || c == '"') {
+                i = skipQuoted(sql, i, c);
+                continue;
+            } else if (c == '-' && i + 1 < n && sql.charAt(i + 1) == '-') {
+                int end = sql.indexOf('\n', i);
+                i = end < 0 ? n : end + 1;
+                continue;
+            } else if (c == '/' && i + 1 < n && sql.charAt(i + 1) == '*') {
+                int end = sql.indexOf("*/", i + 2);
+                i = end < 0 ? n : end + 2;
+                continue;
+            } else if (c == '?') {
+                if (count == slots.length) {
+                    slots = Arrays.copyOf(slots, count * 2);
+                }
+                slots[count++] = i;
+            } else if (groupBy < 0 && c == 'G' && sql.startsWith(GROUP_BY, i)) {
+                groupBy = i;
+            }
+            i++;
+        }
+        String text = sql;
+        int parameterCount = count;
+        // FIXME: move to nativeSQL?
+        if (groupBy >= 0 && QUALIFIED_GROUP_BY.matcher(sql.substring(groupBy + GROUP_BY.length())).matches()) {
+            text = sql.substring(0, groupBy);
+            while (count > 0 && slots[count - 1] >= groupBy) {
+                count--;
+            }
+        }
+        return new SqlTemplate(text, parameterCount, Arrays.copyOf(slots, count));
+    }
+
+    private static int skipQuoted(String sql, int start, char quote) {
+        int i = start + 1;
+        while (i < sql.length()) {
+            if (sql.charAt(i) == quote) {
+                if (i + 1 < sql.length() && sql.charAt(i + 1) == quote) {
+                    i += 2;
+                    continue;
+                }
+                return i + 1;
+            }
+            i++;
+        }
+        return i;
+    }
+
+    /**
+     * @return the number of placeholders of the statement
+     */
+    int getParameterCount() {
+        return parameterCount;
+    }
+
+    /**
+     * Binds the parameters of an execution.
+     *
+     * @param parameters the values of the placeholders, in order
+     * @param params     receives the parameters to send along with the query
+     * @param buffer     used to build the query text if a comparison with null is rewritten
+     * @return the query text to send
+     * @throws SQLException if a placeholder has no value
+     */
+    String bind(SqlParameter[] parameters, List<SqlParameter> params, StringBuilder buffer) throws SQLException {
+        boolean rewrite = false;
+        for (int i = 0; i < slots.length; i++) {
+            SqlParameter parameter = parameters[i];
+            if (parameter == null) {
+                throw new SQLException("No value specified for parameter " + (i + 1));
+            }
+            if (parameter.getValue() == null && nullCuts[i] >= 0) {
+                rewrite = true;
+            } else {
+                params.add(parameter);
+            }
+        }
+        if (!rewrite) {
+            return text;
+        }
+        // comparisons with null never match, test for null instead
+        buffer.setLength(0);
+        int start = 0;
+        for (int i = 0; i < slots.length; i++) {
+            if (parameters[i].getValue() == null && nullCuts[i] >= 0) {
+                buffer.append(text, start, nullCuts[i]).append(notEquals[i] ? " is NOT NULL " : " is NULL ");
+                start = slots[i] + 1;
+            }
+        }
+        return buffer.append(text, start, text.length()).toString();
+    }
+}
@@ -0,0 +1,77 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * A column of {@code boolean} values, packed one bit per row.
+ */
+public class BooleanVector extends ColumnVector {
+
+    private long[] bits;
+
+    public BooleanVector(ColumnDecoder decoder, int capacity) {
+        super(decoder);
+        this.bits = new long[Math.max(1, (capacity + 63) >>> 6)];
+    }
+
+    /**
+     * @return the backing bitmap; bit {@code row % 64} of word {@code row / 64} holds the value of a row
+     */
+    public long[] bits() {
+        return bits;
+    }
+
+    @Override
+    protected void appendScalar(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_TRUE || token == JsonToken.VALUE_FALSE) {
+            ensureCapacity(size + 1);
+            if (token == JsonToken.VALUE_TRUE) {
+                bits[size >>> 6] |= 1L << size;
+            }
+            size++;
+        } else {
+            appendValue(decoder.decode(parser, token));
+        }
+    }
+
+    @Override
+    protected void ensureCapacity(int capacity) {
+        if (capacity > capacity()) {
+            bits = Arrays.copyOf(bits, grow(bits.length, (capacity + 63) >>> 6));
+        }
+    }
+
+    @Override
+    protected int capacity() {
+        return bits.length << 6;
+    }
+
+    @Override
+    protected long valuesSize() {
+        return 16 + 8L * bits.length;
+    }
+
+    private boolean bit(int row) {
+        return (bits[row >>> 6] & (1L << row)) != 0;
+    }
+
+    @Override
+    public Object getObject(int row) {
+        if (isNull(row)) {
+            return null;
+        }
+        Object other = other(row);
+        return other != null ? other : bit(row);
+    }
+
+    @Override
+    public boolean getBoolean(int row) throws SQLException {
+        Object other = other(row);
+        return other == null ? bit(row) : decoder.getBoolean(other);
+    }
+}
@@ -0,0 +1,138 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import org.apache.http.ContentTooLongException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.FileContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes the body of a response to a channel as it arrives, without parsing
+ * it. When the channel is a {@link FileChannel} and the body is not chunked,
+ * the bytes are transferred from the socket to the file by the operating
+ * system, without passing through a buffer of the driver.
+ * <p>
+ * The channel is written from an I/O thread of the client, so it should be
+ * a blocking channel that is quick to write to, such as a file.
+ * <p>
+ * Error responses are buffered as they are, so that the client can report
+ * the error returned by Elasticsearch.
+ */
+public class ChannelResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+    private final WritableByteChannel channel;
+    private final ByteBufferPool pool;
+    private final long bufferLimit;
+    private final AtomicLong written;
+
+    private HttpResponse response;
+    private ContentType contentType;
+    private ByteBuffer buffer;
+    private ByteArrayOutputStream errorBody;
+
+    /**
+     * @param channel     the channel the body is written to
+     * @param pool        the pool providing the receive buffer
+     * @param bufferLimit the maximum size of an error response body in bytes
+     * @param written     the number of bytes written to the channel, shared by the attempts of the request
+     */
+    public ChannelResponseConsumer(WritableByteChannel channel, ByteBufferPool pool, long bufferLimit, AtomicLong written) {
+        this.channel = channel;
+        this.pool = pool;
+        this.bufferLimit = bufferLimit;
+        this.written = written;
+    }
+
+    @Override
+    protected void onResponseReceived(HttpResponse response) {
+        this.response = response;
+    }
+
+    @Override
+    protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+        this.contentType = contentType;
+        if (response.getStatusLine().getStatusCode() < 300) {
+            if (written.get() > 0) {
+                // the bytes of the failed attempt cannot be taken back
+                throw new IOException("Cannot retry a request whose response has been partially written");
+            }
+            if (!(channel instanceof FileChannel)) {
+                this.buffer = pool.acquire();
+            }
+        } else {
+            long length = entity.getContentLength();
+            if (length > bufferLimit) {
+                throw new ContentTooLongException("entity content is too long [" + length
+                        + "] for the configured buffer limit [" + bufferLimit + "]");
+            }
+            this.buffer = pool.acquire();
+            this.errorBody = new ByteArrayOutputStream(length > 0 ? (int) length : 1024);
+        }
+    }
+
+    @Override
+    protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+        if (errorBody == null && channel instanceof FileChannel && decoder instanceof FileContentDecoder) {
+            transfer((FileContentDecoder) decoder, (FileChannel) channel);
+            return;
+        }
+        if (buffer == null) {
+            buffer = pool.acquire();
+        }
+        while (decoder.read(buffer) > 0) {
+            buffer.flip();
+            if (errorBody != null) {
+                if (errorBody.size() + buffer.remaining() > bufferLimit) {
+                    throw new ContentTooLongException("entity content is too long for the configured buffer limit ["
+                            + bufferLimit + "]");
+                }
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                errorBody.write(bytes);
+            } else {
+                while (buffer.hasRemaining()) {
+                    written.addAndGet(channel.write(buffer));
+                }
+            }
+            buffer.clear();
+        }
+    }
+
+    private void transfer(FileContentDecoder decoder, FileChannel file) throws IOException {
+        long position = file.position();
+        long transferred;
+        while ((transferred = decoder.transfer(file, position, Integer.MAX_VALUE)) > 0) {
+            position += transferred;
+            written.addAndGet(transferred);
+        }
+        file.position(position);
+    }
+
+    @Override
+    protected HttpResponse buildResult(HttpContext context) {
+        if (errorBody != null) {
+            response.setEntity(new ByteArrayEntity(errorBody.toByteArray(), contentType));
+        } else {
+            response.setEntity(null);
+        }
+        return response;
+    }
+
+    @Override
+    protected void releaseResources() {
+        pool.release(buffer);
+        buffer = null;
+    }
+}
@@ -0,0 +1,39 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Creates a {@link ChannelResponseConsumer} for every attempt of a request.
+ * The attempts share the count of bytes written, so that a retry on another
+ * node fails rather than writing the body a second time.
+ */
+public class ChannelResponseConsumerFactory implements HttpAsyncResponseConsumerFactory {
+
+    private final WritableByteChannel channel;
+    private final ByteBufferPool pool;
+    private final long bufferLimit;
+    private final AtomicLong written = new AtomicLong();
+
+    public ChannelResponseConsumerFactory(WritableByteChannel channel, ByteBufferPool pool, long bufferLimit) {
+        this.channel = channel;
+        this.pool = pool;
+        this.bufferLimit = bufferLimit;
+    }
+
+    @Override
+    public HttpAsyncResponseConsumer<HttpResponse> createHttpAsyncResponseConsumer() {
+        return new ChannelResponseConsumer(channel, pool, bufferLimit, written);
+    }
+
+    /**
+     * @return the number of bytes of the response body written to the channel
+     */
+    public long getWritten() {
+        return written.get();
+    }
+}
@@ -0,0 +1,446 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Decodes the values of a single column. A decoder is chosen once per column
+ * from its Elasticsearch type: it creates the {@link ColumnVector} the values
+ * of the column are stored in while the response is parsed, and converts the
+ * values that the vector keeps as objects for the {@link java.sql.ResultSet}
+ * getters without going through reflection or Jackson.
+ * <p>
+ * Values are never null when passed to the getters; nulls are handled by
+ * the caller.
+ */
+public abstract class ColumnDecoder {
+
+    private final int sqlType;
+
+    protected ColumnDecoder(int sqlType) {
+        this.sqlType = sqlType;
+    }
+
+    /**
+     * @param type the Elasticsearch type of the column, as returned in {@link ColumnInfo#getType()}
+     * @return the decoder of the column
+     */
+    public static ColumnDecoder forType(String type) {
+        if (type == null) {
+            return new ObjectDecoder();
+        }
+        switch (type) {
+            case "long":
+                return new LongDecoder(Types.BIGINT);
+            case "integer":
+                return new IntDecoder(Types.INTEGER);
+            case "short":
+                return new IntDecoder(Types.SMALLINT);
+            case "byte":
+                return new IntDecoder(Types.TINYINT);
+            case "double":
+                return new DoubleDecoder(Types.DOUBLE);
+            case "float":
+            case "half_float":
+                return new DoubleDecoder(Types.REAL);
+            case "scaled_float":
+                return new DoubleDecoder(Types.DOUBLE);
+            case "unsigned_long":
+                return new ObjectDecoder(Types.NUMERIC);
+            case "boolean":
+                return new BooleanDecoder();
+            case "keyword":
+            case "text":
+            case "constant_keyword":
+            case "wildcard":
+            case "ip":
+            case "version":
+                return new StringDecoder();
+            case "datetime":
+            case "date":
+            case "date_nanos":
+                return new DateTimeDecoder(Types.TIMESTAMP);
+            case "time":
+                return new DateTimeDecoder(Types.TIME);
+            default:
+                return new ObjectDecoder();
+        }
+    }
+
+    /**
+     * @return the {@link Types} constant of the column
+     */
+    public int getSqlType() {
+        return sqlType;
+    }
+
+    /**
+     * @param capacity the expected number of rows
+     * @return an empty vector for the values of the column
+     */
+    public ColumnVector newVector(int capacity) {
+        return new ObjectVector(this, capacity);
+    }
+
+    /**
+     * Decodes the scalar value the parser is positioned at.
+     *
+     * @param parser the parser
+     * @param token  the current token, never a structure start or end
+     * @return the decoded value
+     * @throws IOException if the value cannot be read
+     */
+    public Object decode(JsonParser parser, JsonToken token) throws IOException {
+        switch (token) {
+            case VALUE_NULL:
+                return null;
+            case VALUE_STRING:
+                return parser.getText();
+            case VALUE_NUMBER_INT:
+                return parser.getNumberValue();
+            case VALUE_NUMBER_FLOAT:
+                return doubleValue(parser);
+            case VALUE_TRUE:
+                return Boolean.TRUE;
+            case VALUE_FALSE:
+                return Boolean.FALSE;
+            default:
+                throw new IOException("Unexpected token " + token);
+        }
+    }
+
+    /**
+     * Reads the number the parser is positioned at as a double. SMILE and
+     * CBOR carry {@code float} columns as 32-bit floats, which are widened
+     * through their shortest decimal form, so that they read the same as in
+     * JSON: 0.1 rather than 0.10000000149011612.
+     *
+     * @param parser the parser, positioned at a number
+     * @return the number
+     * @throws IOException if the number cannot be read
+     */
+    static double doubleValue(JsonParser parser) throws IOException {
+        if (parser.getNumberType() == JsonParser.NumberType.FLOAT) {
+            return Double.parseDouble(Float.toString(parser.getFloatValue()));
+        }
+        return parser.getDoubleValue();
+    }
+
+    public String getString(Object value) {
+        return value instanceof String ? (String) value : String.valueOf(value);
+    }
+
+    public long getLong(Object value) throws SQLException {
+        if (value instanceof Number) {
+            return ((Number) value).longValue();
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        try {
+            return Long.parseLong(getString(value).trim());
+        } catch (NumberFormatException e) {
+            throw conversionError(value, "long", e);
+        }
+    }
+
+    public int getInt(Object value) throws SQLException {
+        long l = getLong(value);
+        if (l < Integer.MIN_VALUE || l > Integer.MAX_VALUE) {
+            throw conversionError(value, "int", null);
+        }
+        return (int) l;
+    }
+
+    public short getShort(Object value) throws SQLException {
+        long l = getLong(value);
+        if (l < Short.MIN_VALUE || l > Short.MAX_VALUE) {
+            throw conversionError(value, "short", null);
+        }
+        return (short) l;
+    }
+
+    public byte getByte(Object value) throws SQLException {
+        long l = getLong(value);
+        if (l < Byte.MIN_VALUE || l > Byte.MAX_VALUE) {
+            throw conversionError(value, "byte", null);
+        }
+        return (byte) l;
+    }
+
+    public double getDouble(Object value) throws SQLException {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        }
+        try {
+            return Double.parseDouble(getString(value).trim());
+        } catch (NumberFormatException e) {
+            throw conversionError(value, "double", e);
+        }
+    }
+
+    public float getFloat(Object value) throws SQLException {
+        return (float) getDouble(value);
+    }
+
+    public boolean getBoolean(Object value) throws SQLException {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof Number) {
+            return ((Number) value).doubleValue() != 0;
+        }
+        String s = getString(value).trim();
+        if ("true".equalsIgnoreCase(s) || "1".equals(s)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(s) || "0".equals(s)) {
+            return false;
+        }
+        throw conversionError(value, "boolean", null);
+    }
+
+    public BigDecimal getBigDecimal(Object value) throws SQLException {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        } else if (value instanceof BigInteger) {
+            return new BigDecimal((BigInteger) value);
+        } else if (value instanceof Long || value instanceof Integer) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            return BigDecimal.valueOf(((Number) value).doubleValue());
+        }
+        try {
+            return new BigDecimal(getString(value).trim());
+        } catch (NumberFormatException e) {
+            throw conversionError(value, "BigDecimal", e);
+        }
+    }
+
+    public Timestamp getTimestamp(Object value) throws SQLException {
+        if (value instanceof Number) {
+            return new Timestamp(((Number) value).longValue());
+        }
+        String s = getString(value);
+        try {
+            return Timestamp.from(ZonedDateTime.parse(s).toInstant());
+        } catch (DateTimeParseException e) {
+            try {
+                return Timestamp.valueOf(s);
+            } catch (IllegalArgumentException ex) {
+                throw conversionError(value, "Timestamp", ex);
+            }
+        }
+    }
+
+    public Date getDate(Object value) throws SQLException {
+        return Date.valueOf(getLocalDate(value));
+    }
+
+    /**
+     * Elasticsearch sends dates as instants at midnight UTC, so their day is
+     * taken in UTC rather than in the default time zone, which would move
+     * them to the previous day west of UTC.
+     *
+     * @param value the value, not null
+     * @return the day of the value in UTC
+     * @throws SQLException if the value cannot be converted
+     */
+    public LocalDate getLocalDate(Object value) throws SQLException {
+        if (value instanceof Number) {
+            return Instant.ofEpochMilli(((Number) value).longValue()).atOffset(ZoneOffset.UTC).toLocalDate();
+        }
+        try {
+            return LocalDate.parse(getString(value));
+        } catch (DateTimeParseException e) {
+            return getTimestamp(value).toInstant().atOffset(ZoneOffset.UTC).toLocalDate();
+        }
+    }
+
+    public Time getTime(Object value) throws SQLException {
+        if (value instanceof Number) {
+            return Time.valueOf(Instant.ofEpochMilli(((Number) value).longValue()).atOffset(ZoneOffset.UTC).toLocalTime());
+        }
+        String s = getString(value);
+        try {
+            return Time.valueOf(OffsetTime.parse(s).toLocalTime());
+        } catch (DateTimeParseException e) {
+            try {
+                return Time.valueOf(LocalTime.parse(s));
+            } catch (DateTimeParseException ex) {
+                return Time.valueOf(getTimestamp(value).toInstant().atOffset(ZoneOffset.UTC).toLocalTime());
+            }
+        }
+    }
+
+    /**
+     * Converts a value to one of the types supported by the getters.
+     *
+     * @param value the value, not null
+     * @param type  the requested type
+     * @return the converted value, or null if this decoder has no conversion to {@code type}
+     * @throws SQLException if the value cannot be converted
+     */
+    public Object getObject(Object value, Class<?> type) throws SQLException {
+        if (type.isInstance(value)) {
+            return value;
+        } else if (type == String.class) {
+            return getString(value);
+        } else if (type == Long.class || type == long.class) {
+            return getLong(value);
+        } else if (type == Integer.class || type == int.class) {
+            return getInt(value);
+        } else if (type == Short.class || type == short.class) {
+            return getShort(value);
+        } else if (type == Byte.class || type == byte.class) {
+            return getByte(value);
+        } else if (type == Double.class || type == double.class) {
+            return getDouble(value);
+        } else if (type == Float.class || type == float.class) {
+            return getFloat(value);
+        } else if (type == Boolean.class || type == boolean.class) {
+            return getBoolean(value);
+        } else if (type == BigDecimal.class) {
+            return getBigDecimal(value);
+        } else if (type == Timestamp.class) {
+            return getTimestamp(value);
+        } else if (type == Date.class) {
+            return getDate(value);
+        } else if (type == Time.class) {
+            return getTime(value);
+        } else if (type == LocalDateTime.class) {
+            return getTimestamp(value).toLocalDateTime();
+        } else if (type == LocalDate.class) {
+            return getLocalDate(value);
+        } else if (type == LocalTime.class) {
+            return getTime(value).toLocalTime();
+        }
+        return null;
+    }
+
+    protected static SQLException conversionError(Object value, String type, Exception cause) {
+        return new SQLException("Cannot convert value [" + value + "] to " + type, cause);
+    }
+
+    private static class LongDecoder extends ColumnDecoder {
+
+        LongDecoder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        public ColumnVector newVector(int capacity) {
+            return new LongVector(this, capacity);
+        }
+
+        @Override
+        public long getLong(Object value) throws SQLException {
+            return value instanceof Long ? (Long) value : super.getLong(value);
+        }
+    }
+
+    private static class IntDecoder extends ColumnDecoder {
+
+        IntDecoder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        public ColumnVector newVector(int capacity) {
+            return new IntVector(this, capacity);
+        }
+
+        @Override
+        public int getInt(Object value) throws SQLException {
+            return value instanceof Integer ? (Integer) value : super.getInt(value);
+        }
+
+        @Override
+        public long getLong(Object value) throws SQLException {
+            return value instanceof Integer ? (Integer) value : super.getLong(value);
+        }
+    }
+
+    private static class DoubleDecoder extends ColumnDecoder {
+
+        DoubleDecoder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        public ColumnVector newVector(int capacity) {
+            return new DoubleVector(this, capacity);
+        }
+
+        @Override
+        public double getDouble(Object value) throws SQLException {
+            return value instanceof Double ? (Double) value : super.getDouble(value);
+        }
+    }
+
+    private static class BooleanDecoder extends ColumnDecoder {
+
+        BooleanDecoder() {
+            super(Types.BOOLEAN);
+        }
+
+        @Override
+        public ColumnVector newVector(int capacity) {
+            return new BooleanVector(this, capacity);
+        }
+
+        @Override
+        public boolean getBoolean(Object value) throws SQLException {
+            return value instanceof Boolean ? (Boolean) value : super.getBoolean(value);
+        }
+    }
+
+    private static class StringDecoder extends ColumnDecoder {
+
+        StringDecoder() {
+            super(Types.VARCHAR);
+        }
+
+        @Override
+        public ColumnVector newVector(int capacity) {
+            return new StringVector(this, capacity);
+        }
+    }
+
+    private static class DateTimeDecoder extends ColumnDecoder {
+
+        DateTimeDecoder(int sqlType) {
+            super(sqlType);
+        }
+
+        @Override
+        public ColumnVector newVector(int capacity) {
+            return new StringVector(this, capacity);
+        }
+    }
+
+    private static class ObjectDecoder extends ColumnDecoder {
+
+        ObjectDecoder() {
+            super(Types.JAVA_OBJECT);
+        }
+
+        ObjectDecoder(int sqlType) {
+            super(sqlType);
+        }
+    }
+}
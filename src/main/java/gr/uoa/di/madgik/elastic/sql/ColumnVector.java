@@ -0,0 +1,277 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The values of one column of a page, stored by row index. Subclasses keep
+ * the values in a primitive array of the column type; a bitmap marks the
+ * rows that are null.
+ * <p>
+ * A value that does not fit the column type, for example a multi-valued field
+ * or a special value sent as a string, is kept aside as an object and served
+ * through the conversions of the {@link ColumnDecoder}.
+ */
+public abstract class ColumnVector {
+
+    protected final ColumnDecoder decoder;
+    protected int size;
+    private long[] nulls;
+    private Map<Integer, Object> others;
+
+    protected ColumnVector(ColumnDecoder decoder) {
+        this.decoder = decoder;
+    }
+
+    public ColumnDecoder getDecoder() {
+        return decoder;
+    }
+
+    /**
+     * @return the number of rows in this vector
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @param row the row index
+     * @return true if the value of the row is null
+     */
+    public boolean isNull(int row) {
+        // the bitmap only grows with the nulls, rows past its end are not null
+        return nulls != null && row >>> 6 < nulls.length && (nulls[row >>> 6] & (1L << row)) != 0;
+    }
+
+    /**
+     * @return true if any row of this vector is null
+     */
+    public boolean hasNulls() {
+        return nulls != null;
+    }
+
+    /**
+     * @return the null bitmap, bit {@code row % 64} of word {@code row / 64} set for null rows,
+     * or null if no row is null
+     */
+    public long[] nulls() {
+        if (nulls != null && nulls.length < (size + 63) >>> 6) {
+            nulls = Arrays.copyOf(nulls, (size + 63) >>> 6);
+        }
+        return nulls;
+    }
+
+    /**
+     * @return true if any row holds a value that does not fit the type of the vector
+     */
+    public boolean hasOtherValues() {
+        return others != null;
+    }
+
+    /**
+     * Appends the scalar value the parser is positioned at.
+     *
+     * @param parser the parser
+     * @param token  the current token, never a structure start or end
+     * @throws IOException if the value cannot be read
+     */
+    public void append(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            appendNull();
+        } else {
+            appendScalar(parser, token);
+        }
+    }
+
+    /**
+     * Appends a value that has already been decoded, e.g. an array or object.
+     *
+     * @param value the value, may be null
+     */
+    public void appendValue(Object value) {
+        if (value == null) {
+            appendNull();
+            return;
+        }
+        ensureCapacity(size + 1);
+        if (others == null) {
+            others = new HashMap<>();
+        }
+        others.put(size++, value);
+    }
+
+    public void appendNull() {
+        ensureCapacity(size + 1);
+        if (nulls == null) {
+            nulls = new long[Math.max(1, (capacity() + 63) >>> 6)];
+        } else if (size >>> 6 >= nulls.length) {
+            nulls = Arrays.copyOf(nulls, Math.max(nulls.length * 2, (size >>> 6) + 1));
+        }
+        nulls[size >>> 6] |= 1L << size;
+        size++;
+    }
+
+    protected abstract void appendScalar(JsonParser parser, JsonToken token) throws IOException;
+
+    /**
+     * Makes room for at least {@code capacity} rows.
+     */
+    protected abstract void ensureCapacity(int capacity);
+
+    protected abstract int capacity();
+
+    /**
+     * @return the approximate number of bytes of heap taken by the values of this vector
+     */
+    public long estimateSize() {
+        long bytes = 16 + valuesSize();
+        if (nulls != null) {
+            bytes += 16 + 8L * nulls.length;
+        }
+        if (others != null) {
+            for (Object other : others.values()) {
+                // the entry and the boxed row index
+                bytes += 48 + estimateSize(other);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * @return the approximate number of bytes of heap taken by the arrays of the values of the column type
+     */
+    protected abstract long valuesSize();
+
+    /**
+     * @param value a value decoded by the {@link ColumnDecoder}
+     * @return the approximate number of bytes of heap taken by the value
+     */
+    protected static long estimateSize(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return 40 + 2L * ((String) value).length();
+        }
+        if (value instanceof Collection) {
+            long bytes = 40 + 8L * ((Collection<?>) value).size();
+            for (Object element : (Collection<?>) value) {
+                bytes += estimateSize(element);
+            }
+            return bytes;
+        }
+        if (value instanceof Map) {
+            long bytes = 48;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                bytes += 40 + estimateSize(entry.getKey()) + estimateSize(entry.getValue());
+            }
+            return bytes;
+        }
+        return 24;
+    }
+
+    /**
+     * @param row the row index
+     * @return the value kept aside for the row, or null if the row holds a value of the column type
+     */
+    protected final Object other(int row) {
+        return others == null ? null : others.get(row);
+    }
+
+    /**
+     * @param row the row index
+     * @return the value of the row as an object, null if the row is null
+     */
+    public abstract Object getObject(int row);
+
+    public String getString(int row) {
+        Object value = getObject(row);
+        return value == null ? null : decoder.getString(value);
+    }
+
+    public long getLong(int row) throws SQLException {
+        Object value = getObject(row);
+        return value == null ? 0 : decoder.getLong(value);
+    }
+
+    public int getInt(int row) throws SQLException {
+        Object value = getObject(row);
+        return value == null ? 0 : decoder.getInt(value);
+    }
+
+    public short getShort(int row) throws SQLException {
+        Object value = getObject(row);
+        return value == null ? 0 : decoder.getShort(value);
+    }
+
+    public byte getByte(int row) throws SQLException {
+        Object value = getObject(row);
+        return value == null ? 0 : decoder.getByte(value);
+    }
+
+    public double getDouble(int row) throws SQLException {
+        Object value = getObject(row);
+        return value == null ? 0 : decoder.getDouble(value);
+    }
+
+    public float getFloat(int row) throws SQLException {
+        return (float) getDouble(row);
+    }
+
+    public boolean getBoolean(int row) throws SQLException {
+        Object value = getObject(row);
+        return value != null && decoder.getBoolean(value);
+    }
+
+    public BigDecimal getBigDecimal(int row) throws SQLException {
+        Object value = getObject(row);
+        return value == null ? null : decoder.getBigDecimal(value);
+    }
+
+    public Timestamp getTimestamp(int row) throws SQLException {
+        Object value = getObject(row);
+        return value == null ? null : decoder.getTimestamp(value);
+    }
+
+    public Date getDate(int row) throws SQLException {
+        Object value = getObject(row);
+        return value == null ? null : decoder.getDate(value);
+    }
+
+    /**
+     * @see ColumnDecoder#getLocalDate(Object)
+     */
+    public LocalDate getLocalDate(int row) throws SQLException {
+        Object value = getObject(row);
+        return value == null ? null : decoder.getLocalDate(value);
+    }
+
+    public Time getTime(int row) throws SQLException {
+        Object value = getObject(row);
+        return value == null ? null : decoder.getTime(value);
+    }
+
+    /**
+     * @see ColumnDecoder#getObject(Object, Class)
+     */
+    public Object getObject(int row, Class<?> type) throws SQLException {
+        Object value = getObject(row);
+        return value == null ? null : decoder.getObject(value, type);
+    }
+
+    protected static int grow(int current, int required) {
+        return Math.max(required, Math.max(16, current * 2));
+    }
+}
@@ -0,0 +1,101 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * A column of {@code int} values, used for the integer, short and byte types.
+ */
+public class IntVector extends ColumnVector {
+
+    private int[] values;
+
+    public IntVector(ColumnDecoder decoder, int capacity) {
+        super(decoder);
+        this.values = new int[capacity];
+    }
+
+    /**
+     * @return the backing array; only the first {@link #size()} entries are valid
+     */
+    public int[] values() {
+        return values;
+    }
+
+    @Override
+    protected void appendScalar(JsonParser parser, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NUMBER_INT && parser.getNumberType() == JsonParser.NumberType.INT) {
+            ensureCapacity(size + 1);
+            values[size++] = parser.getIntValue();
+        } else {
+            appendValue(decoder.decode(parser, token));
+        }
+    }
+
+    @Override
+    protected void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, grow(values.length, capacity));
+        }
+    }
+
+    @Override
+    protected int capacity() {
+        return values.length;
+    }
+
+    @Override
+    protected long valuesSize() {
+        return 16 + 4L * values.length;
+    }
+
+    @Override
+    public Object getObject(int row) {
+        if (isNull(row)) {
+            return null;
+        }
+        Object other = other(row);
+        return other != null ? other : values[row];
+    }
+
+    @Override
+    public int getInt(int row) throws SQLException {
+        Object other = other(row);
+        return other == null ? values[row] : decoder.getInt(other);
+    }
+
+    @Override
+    public long getLong(int row) throws SQLException {
+        Object other = other(row);
+        return other == null ? values[row] : decoder.getLong(other);
+    }
+
+    @Override
+    public double getDouble(int row) throws SQLException {
+        Object other = other(row);
+        return other == null ? values[row] : decoder.getDouble(other);
+    }
+
+    @Override
+    public String getString(int row) {
+        Object other = other(row);
+        if (other != null) {
+            return decoder.getString(other);
+        }
+        return isNull(row) ? null : Integer.toString(values[row]);
+    }
+
+    @Override
+    public BigDecimal getBigDecimal(int row) throws SQLException {
+        Object other = other(row);
+        if (other != null) {
+            return decoder.getBigDecimal(other);
+        }
+        return isNull(row) ? null : BigDecimal.valueOf(values[row]);
+    }
+}
@@ -0,0 +1,62 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * A column of arbitrary values, used for the types without a primitive
+ * representation.
+ */
+public class ObjectVector extends ColumnVector {
+
+    private Object[] values;
+
+    public ObjectVector(ColumnDecoder decoder, int capacity) {
+        super(decoder);
+        this.values = new Object[capacity];
+    }
+
+    @Override
+    protected void appendScalar(JsonParser parser, JsonToken token) throws IOException {
+        appendValue(decoder.decode(parser, token));
+    }
+
+    @Override
+    public void appendValue(Object value) {
+        if (value == null) {
+            appendNull();
+            return;
+        }
+        ensureCapacity(size + 1);
+        values[size++] = value;
+    }
+
+    @Override
+    protected void ensureCapacity(int capacity) {
+        if (capacity > values.length) {
+            values = Arrays.copyOf(values, grow(values.length, capacity));
+        }
+    }
+
+    @Override
+    protected int capacity() {
+        return values.length;
+    }
+
+    @Override
+    protected long valuesSize() {
+        long bytes = 16 + 8L * values.length;
+        for (int row = 0; row < size; row++) {
+            bytes += estimateSize(values[row]);
+        }
+        return bytes;
+    }
+
+    @Override
+    public Object getObject(int row) {
+        return values[row];
+    }
+}
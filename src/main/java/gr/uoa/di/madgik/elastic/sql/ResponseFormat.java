@@ -0,0 +1,103 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.apache.http.entity.ContentType;
+
+import java.io.IOException;
+import java.util.Locale;
+
+/**
+ * The formats the {@code /_sql} endpoint can be asked to answer in with the
+ * {@code format} parameter. The binary formats carry numbers in binary form,
+ * so they are both smaller and cheaper to decode than JSON.
+ * <p>
+ * All formats are read with the same token based parsers of Jackson, so a
+ * response is decoded into the same vectors whatever its format.
+ */
+public enum ResponseFormat {
+
+    JSON("json", new JsonFactory()),
+    SMILE("smile", new SmileFactory()),
+    CBOR("cbor", new CBORFactory());
+
+    private final String name;
+    private final JsonFactory factory;
+
+    ResponseFormat(String name, JsonFactory factory) {
+        this.name = name;
+        this.factory = factory;
+    }
+
+    /**
+     * @return the value of the {@code format} parameter requesting this format
+     */
+    public String getName() {
+        return name;
+    }
+
+    JsonFactory getFactory() {
+        return factory;
+    }
+
+    /**
+     * @return whether the body can be decoded as it arrives, rather than once it has been received
+     */
+    boolean isStreaming() {
+        return factory.canParseAsync();
+    }
+
+    /**
+     * @return a parser fed with the body as it arrives
+     * @throws IOException if the parser cannot be created
+     * @throws UnsupportedOperationException if the format cannot be parsed incrementally
+     */
+    JsonParser newNonBlockingParser() throws IOException {
+        switch (this) {
+            case JSON:
+                return factory.createNonBlockingByteBufferParser();
+            case SMILE:
+                return factory.createNonBlockingByteArrayParser();
+            default:
+                throw new UnsupportedOperationException("Format " + name + " cannot be parsed incrementally");
+        }
+    }
+
+    /**
+     * @param name the name of the format, {@code none} standing for JSON
+     * @return the format, or null if there is no format of that name
+     */
+    public static ResponseFormat of(String name) {
+        String normalized = name.trim().toLowerCase(Locale.ROOT);
+        if (normalized.equals("none")) {
+            return JSON;
+        }
+        for (ResponseFormat format : values()) {
+            if (format.name.equals(normalized)) {
+                return format;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the format of a body, so that a response is decoded correctly
+     * even if the server did not honour the requested format.
+     *
+     * @param contentType the content type of the body, may be null
+     * @return the format of the body, JSON if the content type is unknown
+     */
+    public static ResponseFormat of(ContentType contentType) {
+        if (contentType != null) {
+            String mimeType = contentType.getMimeType().toLowerCase(Locale.ROOT);
+            for (ResponseFormat format : values()) {
+                if (format != JSON && mimeType.endsWith(format.name)) {
+                    return format;
+                }
+            }
+        }
+        return JSON;
+    }
+}
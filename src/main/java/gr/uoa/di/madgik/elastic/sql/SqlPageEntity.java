@@ -0,0 +1,61 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import org.apache.http.entity.AbstractHttpEntity;
+import org.apache.http.entity.ContentType;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Entity of a {@code /_sql} response whose body has been decoded into a page
+ * while it was being received. The raw body is not retained: the content of
+ * the entity is a short description of the page, read e.g. by the request
+ * tracer of the client.
+ */
+public class SqlPageEntity extends AbstractHttpEntity {
+
+    private final SqlResponseResults page;
+
+    public SqlPageEntity(SqlResponseResults page, ContentType contentType) {
+        this.page = page;
+        if (contentType != null) {
+            setContentType(contentType.toString());
+        }
+    }
+
+    public SqlResponseResults getPage() {
+        return page;
+    }
+
+    @Override
+    public boolean isRepeatable() {
+        return true;
+    }
+
+    @Override
+    public long getContentLength() {
+        return description().length;
+    }
+
+    @Override
+    public InputStream getContent() {
+        return new ByteArrayInputStream(description());
+    }
+
+    @Override
+    public void writeTo(OutputStream outStream) throws IOException {
+        outStream.write(description());
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return false;
+    }
+
+    private byte[] description() {
+        return ("[" + page.getRowCount() + " rows decoded while streaming]").getBytes(StandardCharsets.US_ASCII);
+    }
+}
@@ -0,0 +1,293 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.sql.Date;
+import java.sql.JDBCType;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+
+/**
+ * A query parameter sent in the {@code params} array of a {@code /_sql}
+ * request, in place of a {@code ?} placeholder of the query. The type is the
+ * name of an Elasticsearch SQL data type.
+ */
+public class SqlParameter {
+
+    String type;
+    Object value;
+
+    public SqlParameter() {
+    }
+
+    public SqlParameter(String type, Object value) {
+        this.type = type;
+        this.value = value;
+    }
+
+    /**
+     * Creates a parameter typed after the Java class of its value.
+     *
+     * @param value the value, may be null
+     * @return the parameter
+     */
+    public static SqlParameter of(Object value) {
+        if (value == null) {
+            return new SqlParameter("null", null);
+        } else if (value instanceof String || value instanceof Character) {
+            return new SqlParameter("keyword", value.toString());
+        } else if (value instanceof Boolean) {
+            return new SqlParameter("boolean", value);
+        } else if (value instanceof Byte) {
+            return new SqlParameter("byte", value);
+        } else if (value instanceof Short) {
+            return new SqlParameter("short", value);
+        } else if (value instanceof Integer) {
+            return new SqlParameter("integer", value);
+        } else if (value instanceof Long || value instanceof BigInteger) {
+            return new SqlParameter("long", value);
+        } else if (value instanceof Float) {
+            return new SqlParameter("float", value);
+        } else if (value instanceof Double || value instanceof BigDecimal) {
+            return new SqlParameter("double", value);
+        } else if (value instanceof Timestamp) {
+            return new SqlParameter("datetime", ((Timestamp) value).toInstant().toString());
+        } else if (value instanceof Date) {
+            return new SqlParameter("date", ((Date) value).toLocalDate().toString());
+        } else if (value instanceof Time) {
+            return new SqlParameter("time", ((Time) value).toLocalTime().toString());
+        } else if (value instanceof java.util.Date) {
+            return new SqlParameter("datetime", ((java.util.Date) value).toInstant().toString());
+        } else if (value instanceof LocalDateTime || value instanceof OffsetDateTime
+                || value instanceof ZonedDateTime) {
+            return new SqlParameter("datetime", value.toString());
+        } else if (value instanceof LocalDate) {
+            return new SqlParameter("date", value.toString());
+        } else if (value instanceof LocalTime) {
+            return new SqlParameter("time", value.toString());
+        }
+        return new SqlParameter("keyword", value.toString());
+    }
+
+    /**
+     * Creates a parameter of the Elasticsearch type matching a {@link Types}
+     * constant, converting the value to that type: numeric types take a
+     * number, {@code BIT} and {@code BOOLEAN} a boolean, temporal types a
+     * date, time or datetime string and character types a string. Other
+     * types keep the value, typed after its Java class.
+     *
+     * @param value   the value, may be null
+     * @param sqlType the {@link Types} constant
+     * @return the parameter
+     * @throws SQLException if the value cannot be converted to the type
+     */
+    public static SqlParameter of(Object value, int sqlType) throws SQLException {
+        SqlParameter parameter = of(value);
+        try {
+            switch (sqlType) {
+                case Types.BOOLEAN:
+                case Types.BIT:
+                    return typed(parameter, "boolean", value == null ? null : toBoolean(value));
+                case Types.TINYINT:
+                    return typed(parameter, "byte", value == null ? null : toBigDecimal(value).byteValueExact());
+                case Types.SMALLINT:
+                    return typed(parameter, "short", value == null ? null : toBigDecimal(value).shortValueExact());
+                case Types.INTEGER:
+                    return typed(parameter, "integer", value == null ? null : toBigDecimal(value).intValueExact());
+                case Types.BIGINT:
+                    return typed(parameter, "long", value == null ? null : toBigDecimal(value).longValueExact());
+                case Types.REAL:
+                case Types.FLOAT:
+                    return typed(parameter, "float", value == null ? null : (float) toDouble(value));
+                case Types.DOUBLE:
+                    return typed(parameter, "double", value == null ? null : toDouble(value));
+                case Types.DECIMAL:
+                case Types.NUMERIC:
+                    return typed(parameter, "double", value == null ? null : toBigDecimal(value));
+                case Types.CHAR:
+                case Types.VARCHAR:
+                case Types.LONGVARCHAR:
+                case Types.NCHAR:
+                case Types.NVARCHAR:
+                case Types.LONGNVARCHAR:
+                    return typed(parameter, "keyword", value == null ? null : String.valueOf(parameter.value));
+                case Types.DATE:
+                    return typed(parameter, "date", value == null ? null : toLocalDate(value).toString());
+                case Types.TIME:
+                case Types.TIME_WITH_TIMEZONE:
+                    return typed(parameter, "time", value == null ? null : toLocalTime(value).toString());
+                case Types.TIMESTAMP:
+                case Types.TIMESTAMP_WITH_TIMEZONE:
+                    return typed(parameter, "datetime", value == null ? null : toDateTime(value));
+                default:
+                    return parameter;
+            }
+        } catch (ArithmeticException | IllegalArgumentException | DateTimeException e) {
+            throw new SQLException("Cannot convert value [" + value + "] to " + JDBCType.valueOf(sqlType), e);
+        }
+    }
+
+    private static SqlParameter typed(SqlParameter parameter, String type, Object value) {
+        return parameter.setType(type).setValue(value);
+    }
+
+    private static boolean toBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof Number) {
+            return toBigDecimal(value).signum() != 0;
+        }
+        String s = value.toString().trim();
+        if ("true".equalsIgnoreCase(s) || "1".equals(s)) {
+            return true;
+        } else if ("false".equalsIgnoreCase(s) || "0".equals(s)) {
+            return false;
+        }
+        throw new IllegalArgumentException("not a boolean");
+    }
+
+    /**
+     * Unlike {@link #toBigDecimal(Object)}, keeps infinities and NaN.
+     */
+    private static double toDouble(Object value) {
+        if (value instanceof Double || value instanceof Float) {
+            return Double.parseDouble(value.toString());
+        }
+        return toBigDecimal(value).doubleValue();
+    }
+
+    /**
+     * @throws NumberFormatException if the value is not a number, nor a boolean
+     */
+    private static BigDecimal toBigDecimal(Object value) {
+        if (value instanceof BigDecimal) {
+            return (BigDecimal) value;
+        } else if (value instanceof BigInteger) {
+            return new BigDecimal((BigInteger) value);
+        } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+            return BigDecimal.valueOf(((Number) value).longValue());
+        } else if (value instanceof Number) {
+            // a float is taken through its shortest decimal form
+            return new BigDecimal(value.toString());
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? BigDecimal.ONE : BigDecimal.ZERO;
+        }
+        return new BigDecimal(value.toString().trim());
+    }
+
+    /**
+     * Instants are taken in UTC, as datetime parameters are sent.
+     */
+    private static LocalDate toLocalDate(Object value) {
+        if (value instanceof Date) {
+            return ((Date) value).toLocalDate();
+        } else if (value instanceof LocalDate) {
+            return (LocalDate) value;
+        } else if (value instanceof LocalDateTime) {
+            return ((LocalDateTime) value).toLocalDate();
+        } else if (value instanceof OffsetDateTime) {
+            return ((OffsetDateTime) value).toLocalDate();
+        } else if (value instanceof ZonedDateTime) {
+            return ((ZonedDateTime) value).toLocalDate();
+        } else if (value instanceof Time) {
+            throw new IllegalArgumentException("not a date");
+        } else if (value instanceof java.util.Date) {
+            return ((java.util.Date) value).toInstant().atOffset(ZoneOffset.UTC).toLocalDate();
+        } else if (value instanceof CharSequence) {
+            String s = value.toString().trim();
+            try {
+                return LocalDate.parse(s);
+            } catch (DateTimeParseException e) {
+                return parseDateTime(s).toLocalDate();
+            }
+        }
+        throw new IllegalArgumentException("not a date");
+    }
+
+    private static LocalTime toLocalTime(Object value) {
+        if (value instanceof Time) {
+            return ((Time) value).toLocalTime();
+        } else if (value instanceof LocalTime) {
+            return (LocalTime) value;
+        } else if (value instanceof LocalDateTime) {
+            return ((LocalDateTime) value).toLocalTime();
+        } else if (value instanceof OffsetDateTime) {
+            return ((OffsetDateTime) value).toLocalTime();
+        } else if (value instanceof ZonedDateTime) {
+            return ((ZonedDateTime) value).toLocalTime();
+        } else if (value instanceof Date) {
+            throw new IllegalArgumentException("not a time");
+        } else if (value instanceof java.util.Date) {
+            return ((java.util.Date) value).toInstant().atOffset(ZoneOffset.UTC).toLocalTime();
+        } else if (value instanceof CharSequence) {
+            String s = value.toString().trim();
+            try {
+                return LocalTime.parse(s);
+            } catch (DateTimeParseException e) {
+                return parseDateTime(s).toLocalTime();
+            }
+        }
+        throw new IllegalArgumentException("not a time");
+    }
+
+    private static String toDateTime(Object value) {
+        if (value instanceof LocalDate) {
+            return ((LocalDate) value).atStartOfDay().toString();
+        } else if (value instanceof Date) {
+            return ((Date) value).toLocalDate().atStartOfDay().toString();
+        } else if (value instanceof Time || value instanceof LocalTime) {
+            throw new IllegalArgumentException("not a datetime");
+        } else if (value instanceof CharSequence) {
+            String s = value.toString().trim();
+            try {
+                return OffsetDateTime.parse(s).toString();
+            } catch (DateTimeParseException e) {
+                return parseDateTime(s).toString();
+            }
+        }
+        SqlParameter parameter = of(value);
+        if (!"datetime".equals(parameter.type)) {
+            throw new IllegalArgumentException("not a datetime");
+        }
+        return (String) parameter.value;
+    }
+
+    /**
+     * Parses a datetime without offset, in ISO or JDBC escape format.
+     */
+    private static LocalDateTime parseDateTime(String s) {
+        try {
+            return LocalDateTime.parse(s);
+        } catch (DateTimeParseException e) {
+            return Timestamp.valueOf(s).toLocalDateTime();
+        }
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public SqlParameter setType(String type) {
+        this.type = type;
+        return this;
+    }
+
+    public Object getValue() {
+        return value;
+    }
+
+    public SqlParameter setValue(Object value) {
+        this.value = value;
+        return this;
+    }
+}
@@ -0,0 +1,116 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import java.util.List;
+
+/**
+ * Body of a request to the Elasticsearch {@code /_sql} endpoints. Either a
+ * {@code query} (optionally paged with a {@code fetch_size} and bound to
+ * {@code params}) or the {@code cursor} of a previous response is set, along
+ * with the timeouts of the request and of the cursor and the layout of the
+ * results.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class SqlRequest {
+
+    String query;
+    Integer fetchSize;
+    List<SqlParameter> params;
+    String cursor;
+    String requestTimeout;
+    String pageTimeout;
+    String waitForCompletionTimeout;
+    String keepAlive;
+    Boolean columnar;
+
+    public SqlRequest() {
+    }
+
+    public String getQuery() {
+        return query;
+    }
+
+    public SqlRequest setQuery(String query) {
+        this.query = query;
+        return this;
+    }
+
+    @JsonProperty("fetch_size")
+    public Integer getFetchSize() {
+        return fetchSize;
+    }
+
+    public SqlRequest setFetchSize(Integer fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    public List<SqlParameter> getParams() {
+        return params;
+    }
+
+    public SqlRequest setParams(List<SqlParameter> params) {
+        this.params = params;
+        return this;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public SqlRequest setCursor(String cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
+    @JsonProperty("request_timeout")
+    public String getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    public SqlRequest setRequestTimeout(String requestTimeout) {
+        this.requestTimeout = requestTimeout;
+        return this;
+    }
+
+    @JsonProperty("page_timeout")
+    public String getPageTimeout() {
+        return pageTimeout;
+    }
+
+    public SqlRequest setPageTimeout(String pageTimeout) {
+        this.pageTimeout = pageTimeout;
+        return this;
+    }
+
+    @JsonProperty("wait_for_completion_timeout")
+    public String getWaitForCompletionTimeout() {
+        return waitForCompletionTimeout;
+    }
+
+    public SqlRequest setWaitForCompletionTimeout(String waitForCompletionTimeout) {
+        this.waitForCompletionTimeout = waitForCompletionTimeout;
+        return this;
+    }
+
+    @JsonProperty("keep_alive")
+    public String getKeepAlive() {
+        return keepAlive;
+    }
+
+    public SqlRequest setKeepAlive(String keepAlive) {
+        this.keepAlive = keepAlive;
+        return this;
+    }
+
+    public Boolean getColumnar() {
+        return columnar;
+    }
+
+    public SqlRequest setColumnar(Boolean columnar) {
+        this.columnar = columnar;
+        return this;
+    }
+}
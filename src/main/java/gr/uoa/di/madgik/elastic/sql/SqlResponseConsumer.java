@@ -0,0 +1,184 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.core.async.ByteArrayFeeder;
+import com.fasterxml.jackson.core.async.ByteBufferFeeder;
+import com.fasterxml.jackson.core.async.NonBlockingInputFeeder;
+import org.apache.http.ContentTooLongException;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.ContentType;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+
+/**
+ * Consumes the body of a {@code /_sql} response as it arrives, feeding each
+ * received chunk to a non-blocking parser and the {@link SqlResponseDecoder}.
+ * Only the decoded page is kept; the raw body never needs to be buffered.
+ * <p>
+ * The parser is chosen from the content type of the response. Formats that
+ * Jackson cannot parse incrementally (CBOR) are buffered and decoded once the
+ * whole body has arrived.
+ * <p>
+ * Error responses are buffered, and converted to JSON if they are in a
+ * binary format, so that the client can report the error returned by
+ * Elasticsearch.
+ */
+public class SqlResponseConsumer extends AbstractAsyncResponseConsumer<HttpResponse> {
+
+    private final SqlResponseDecoder.PageDecoder page;
+    private final ByteBufferPool pool;
+    private final long bufferLimit;
+
+    private HttpResponse response;
+    private ContentType contentType;
+    private ResponseFormat format;
+    private ByteBuffer buffer;
+    private byte[] chunk;
+    private JsonParser parser;
+    private ByteArrayOutputStream body;
+    private long received;
+
+    /**
+     * @param page        the decoder of the page carried by the response
+     * @param pool        the pool providing the receive buffer
+     * @param bufferLimit the maximum size of the response body in bytes
+     */
+    public SqlResponseConsumer(SqlResponseDecoder.PageDecoder page, ByteBufferPool pool, long bufferLimit) {
+        this.page = page;
+        this.pool = pool;
+        this.bufferLimit = bufferLimit;
+    }
+
+    @Override
+    protected void onResponseReceived(HttpResponse response) {
+        this.response = response;
+    }
+
+    @Override
+    protected void onEntityEnclosed(HttpEntity entity, ContentType contentType) throws IOException {
+        long length = entity.getContentLength();
+        if (length > bufferLimit) {
+            throw new ContentTooLongException("entity content is too long [" + length
+                    + "] for the configured buffer limit [" + bufferLimit + "]");
+        }
+        this.contentType = contentType;
+        this.format = ResponseFormat.of(contentType);
+        this.buffer = pool.acquire();
+        if (response.getStatusLine().getStatusCode() < 300 && format.isStreaming()) {
+            this.parser = format.newNonBlockingParser();
+            if (!(parser.getNonBlockingInputFeeder() instanceof ByteBufferFeeder)) {
+                this.chunk = new byte[buffer.capacity()];
+            }
+        } else {
+            this.body = new ByteArrayOutputStream(length > 0 ? (int) length : 1024);
+        }
+    }
+
+    @Override
+    protected void onContentReceived(ContentDecoder decoder, IOControl ioControl) throws IOException {
+        int read;
+        while ((read = decoder.read(buffer)) > 0) {
+            received += read;
+            if (received > bufferLimit) {
+                throw new ContentTooLongException("entity content is too long for the configured buffer limit ["
+                        + bufferLimit + "]");
+            }
+            buffer.flip();
+            if (parser != null) {
+                feed();
+                drain();
+            } else {
+                byte[] bytes = new byte[buffer.remaining()];
+                buffer.get(bytes);
+                body.write(bytes);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Hands the received bytes to the parser. The parsers reading from arrays
+     * do not copy their input, which is fine since each chunk is drained
+     * before the next one is received.
+     */
+    private void feed() throws IOException {
+        NonBlockingInputFeeder feeder = parser.getNonBlockingInputFeeder();
+        if (feeder instanceof ByteBufferFeeder) {
+            ((ByteBufferFeeder) feeder).feedInput(buffer);
+        } else {
+            int length = buffer.remaining();
+            buffer.get(chunk, 0, length);
+            ((ByteArrayFeeder) feeder).feedInput(chunk, 0, length);
+        }
+    }
+
+    private void drain() throws IOException {
+        JsonToken token;
+        while ((token = parser.nextToken()) != null && token != JsonToken.NOT_AVAILABLE) {
+            page.accept(parser, token);
+        }
+    }
+
+    @Override
+    protected HttpResponse buildResult(HttpContext context) throws Exception {
+        if (parser != null) {
+            parser.getNonBlockingInputFeeder().endOfInput();
+            drain();
+            response.setEntity(new SqlPageEntity(page.finish(), contentType));
+        } else if (body != null && response.getStatusLine().getStatusCode() < 300) {
+            try (JsonParser buffered = format.getFactory().createParser(body.toByteArray())) {
+                JsonToken token;
+                while ((token = buffered.nextToken()) != null) {
+                    page.accept(buffered, token);
+                }
+            }
+            response.setEntity(new SqlPageEntity(page.finish(), contentType));
+        } else if (body != null) {
+            byte[] json = format == ResponseFormat.JSON ? null : toJson(body.toByteArray());
+            response.setEntity(json != null
+                    ? new ByteArrayEntity(json, ContentType.APPLICATION_JSON)
+                    : new ByteArrayEntity(body.toByteArray(), contentType));
+        }
+        return response;
+    }
+
+    /**
+     * @return an error body in a binary format converted to JSON, or null if it cannot be read
+     */
+    private byte[] toJson(byte[] error) {
+        StringWriter json = new StringWriter();
+        try (JsonParser binary = format.getFactory().createParser(error);
+             JsonGenerator generator = ResponseFormat.JSON.getFactory().createGenerator(json)) {
+            while (binary.nextToken() != null) {
+                generator.copyCurrentStructure(binary);
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        return json.toString().getBytes(ContentType.APPLICATION_JSON.getCharset());
+    }
+
+    @Override
+    protected void releaseResources() {
+        pool.release(buffer);
+        buffer = null;
+        if (parser != null) {
+            try {
+                parser.close();
+            } catch (IOException ignored) {
+                // nothing left to release
+            }
+        }
+    }
+}
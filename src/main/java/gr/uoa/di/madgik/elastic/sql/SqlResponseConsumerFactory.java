@@ -0,0 +1,27 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.nio.protocol.HttpAsyncResponseConsumer;
+import org.elasticsearch.client.HttpAsyncResponseConsumerFactory;
+
+/**
+ * Creates a {@link SqlResponseConsumer} for every attempt of a request, so
+ * that a retry on another node starts decoding from a clean state.
+ */
+public class SqlResponseConsumerFactory implements HttpAsyncResponseConsumerFactory {
+
+    private final SqlResponseDecoder decoder;
+    private final ByteBufferPool pool;
+    private final long bufferLimit;
+
+    public SqlResponseConsumerFactory(SqlResponseDecoder decoder, ByteBufferPool pool, long bufferLimit) {
+        this.decoder = decoder;
+        this.pool = pool;
+        this.bufferLimit = bufferLimit;
+    }
+
+    @Override
+    public HttpAsyncResponseConsumer<HttpResponse> createHttpAsyncResponseConsumer() {
+        return new SqlResponseConsumer(decoder.newPage(), pool, bufferLimit);
+    }
+}
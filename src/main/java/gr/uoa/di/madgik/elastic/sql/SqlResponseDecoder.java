@@ -0,0 +1,436 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.ContentType;
+import org.elasticsearch.client.Response;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes the responses of the {@code /_sql} endpoint token by token,
+ * without building an intermediate tree of the whole document. Values are
+ * appended straight into one {@link ColumnVector} per column, so a page is
+ * held in primitive arrays rather than as an object per value. Both the row
+ * oriented layout ({@code rows}, one array per row) and the columnar one
+ * ({@code values}, one array per column) are decoded into the same vectors;
+ * the columnar layout fills each vector in one sequential pass.
+ * <p>
+ * Decoding is push based: a {@link PageDecoder} accepts tokens one at a time,
+ * so it can be fed both from a blocking parser and from a non-blocking one
+ * as the bytes of the response arrive (see {@link SqlResponseConsumer}). The
+ * tokens are the same for all the {@link ResponseFormat}s.
+ * <p>
+ * A decoder is bound to a single query: the columns are only sent with the
+ * first page, so the decoder remembers them to create the vectors of the
+ * pages that follow.
+ */
+public class SqlResponseDecoder {
+
+    /**
+     * Rows per page when the query does not set a fetch size, the default of Elasticsearch.
+     */
+    public static final int DEFAULT_PAGE_SIZE = 1000;
+
+    private final int pageSize;
+    private volatile ColumnDecoder[] columnDecoders;
+
+    public SqlResponseDecoder() {
+        this(DEFAULT_PAGE_SIZE);
+    }
+
+    /**
+     * @param pageSize the expected number of rows per page, used to size the vectors
+     */
+    public SqlResponseDecoder(int pageSize) {
+        this.pageSize = pageSize > 0 ? pageSize : DEFAULT_PAGE_SIZE;
+    }
+
+    /**
+     * Returns the page carried by a response. Responses received through a
+     * {@link SqlResponseConsumer} have already been decoded while streaming,
+     * any other response is decoded from its body.
+     *
+     * @param response the response of a {@code /_sql} request
+     * @return the decoded page
+     * @throws IOException if the body cannot be read or is not a valid response
+     */
+    public SqlResponseResults decode(Response response) throws IOException {
+        HttpEntity entity = response.getEntity();
+        if (entity instanceof SqlPageEntity) {
+            return ((SqlPageEntity) entity).getPage();
+        }
+        return decode(entity.getContent(), ResponseFormat.of(ContentType.get(entity)));
+    }
+
+    /**
+     * Decodes a page of results.
+     *
+     * @param content the JSON response body
+     * @return the decoded page
+     * @throws IOException if the body cannot be read or is not a valid response
+     */
+    public SqlResponseResults decode(InputStream content) throws IOException {
+        return decode(content, ResponseFormat.JSON);
+    }
+
+    /**
+     * Decodes a page of results.
+     *
+     * @param content the response body
+     * @param format  the format of the body
+     * @return the decoded page
+     * @throws IOException if the body cannot be read or is not a valid response
+     */
+    public SqlResponseResults decode(InputStream content, ResponseFormat format) throws IOException {
+        PageDecoder page = newPage();
+        try (JsonParser parser = format.getFactory().createParser(content)) {
+            JsonToken token;
+            while ((token = parser.nextToken()) != null) {
+                page.accept(parser, token);
+            }
+        }
+        return page.finish();
+    }
+
+    /**
+     * @return the decoders of the columns, or null if the columns have not been received yet
+     */
+    public ColumnDecoder[] getColumnDecoders() {
+        return columnDecoders;
+    }
+
+    /**
+     * @return a decoder for the next page of this query
+     */
+    public PageDecoder newPage() {
+        return new PageDecoder(this);
+    }
+
+    private enum State {
+        START, FIELDS, FIELD_VALUE, COLUMNS, COLUMN, COLUMN_VALUE, ROWS, ROW, VALUES, VALUES_COLUMN, NESTED, SKIP, END
+    }
+
+    /**
+     * Decoding state of a single page.
+     */
+    public static class PageDecoder {
+
+        private final SqlResponseDecoder decoder;
+        private final SqlResponseResults results = new SqlResponseResults();
+
+        private State state = State.START;
+        private State afterSkip;
+        private int skipDepth;
+        private State afterNested;
+        private String field;
+
+        private List<ColumnInfo> columns;
+        private ColumnInfo column;
+
+        private ColumnVector[] vectors;
+        private int rowCount;
+        private int columnIndex;
+
+        private final Deque<Object> nested = new ArrayDeque<>();
+        private final Deque<String> nestedKeys = new ArrayDeque<>();
+
+        PageDecoder(SqlResponseDecoder decoder) {
+            this.decoder = decoder;
+        }
+
+        /**
+         * Consumes the next token of the response.
+         *
+         * @param parser the parser positioned at {@code token}
+         * @param token  the current token
+         * @throws IOException if the token is not expected at this point
+         */
+        public void accept(JsonParser parser, JsonToken token) throws IOException {
+            switch (state) {
+                case START:
+                    expect(token, JsonToken.START_OBJECT);
+                    state = State.FIELDS;
+                    break;
+                case FIELDS:
+                    if (token == JsonToken.END_OBJECT) {
+                        state = State.END;
+                    } else {
+                        expect(token, JsonToken.FIELD_NAME);
+                        field = parser.getCurrentName();
+                        state = State.FIELD_VALUE;
+                    }
+                    break;
+                case FIELD_VALUE:
+                    fieldValue(parser, token);
+                    break;
+                case COLUMNS:
+                    if (token == JsonToken.END_ARRAY) {
+                        results.setColumns(columns);
+                        ColumnDecoder[] columnDecoders = new ColumnDecoder[columns.size()];
+                        for (int i = 0; i < columnDecoders.length; i++) {
+                            columnDecoders[i] = ColumnDecoder.forType(columns.get(i).getType());
+                        }
+                        decoder.columnDecoders = columnDecoders;
+                        state = State.FIELDS;
+                    } else {
+                        expect(token, JsonToken.START_OBJECT);
+                        column = new ColumnInfo();
+                        state = State.COLUMN;
+                    }
+                    break;
+                case COLUMN:
+                    if (token == JsonToken.END_OBJECT) {
+                        columns.add(column);
+                        state = State.COLUMNS;
+                    } else {
+                        expect(token, JsonToken.FIELD_NAME);
+                        field = parser.getCurrentName();
+                        state = State.COLUMN_VALUE;
+                    }
+                    break;
+                case COLUMN_VALUE:
+                    if (token.isStructStart()) {
+                        skip(State.COLUMN);
+                    } else {
+                        if ("name".equals(field)) {
+                            column.setName(parser.getText());
+                        } else if ("type".equals(field)) {
+                            column.setType(parser.getText());
+                        }
+                        state = State.COLUMN;
+                    }
+                    break;
+                case ROWS:
+                    if (token == JsonToken.END_ARRAY) {
+                        state = State.FIELDS;
+                    } else {
+                        expect(token, JsonToken.START_ARRAY);
+                        columnIndex = 0;
+                        state = State.ROW;
+                    }
+                    break;
+                case ROW:
+                    if (token == JsonToken.END_ARRAY) {
+                        while (columnIndex < vectors.length) {
+                            vectors[columnIndex++].appendNull();
+                        }
+                        rowCount++;
+                        state = State.ROWS;
+                    } else if (token.isStructStart()) {
+                        nest(token, State.ROW);
+                    } else {
+                        checkRowWidth();
+                        vectors[columnIndex++].append(parser, token);
+                    }
+                    break;
+                case VALUES:
+                    if (token == JsonToken.END_ARRAY) {
+                        endValues();
+                        state = State.FIELDS;
+                    } else {
+                        expect(token, JsonToken.START_ARRAY);
+                        if (columnIndex >= vectors.length) {
+                            throw new IOException("Received more than the " + vectors.length + " columns");
+                        }
+                        state = State.VALUES_COLUMN;
+                    }
+                    break;
+                case VALUES_COLUMN:
+                    if (token == JsonToken.END_ARRAY) {
+                        columnIndex++;
+                        state = State.VALUES;
+                    } else if (token.isStructStart()) {
+                        nest(token, State.VALUES_COLUMN);
+                    } else {
+                        vectors[columnIndex].append(parser, token);
+                    }
+                    break;
+                case NESTED:
+                    nestedValue(parser, token);
+                    break;
+                case SKIP:
+                    if (token.isStructStart()) {
+                        skipDepth++;
+                    } else if (token.isStructEnd() && --skipDepth == 0) {
+                        state = afterSkip;
+                    }
+                    break;
+                case END:
+                    throw new IOException("Unexpected token " + token + " after the end of the response");
+            }
+        }
+
+        /**
+         * @return the decoded page
+         * @throws IOException if the response ended before it was complete
+         */
+        public SqlResponseResults finish() throws IOException {
+            if (state != State.END) {
+                throw new IOException("Truncated response");
+            }
+            if (vectors == null) {
+                vectors = newVectors(0);
+            }
+            return results.setVectors(vectors).setRowCount(rowCount);
+        }
+
+        private void fieldValue(JsonParser parser, JsonToken token) throws IOException {
+            switch (field) {
+                case "columns":
+                    expect(token, JsonToken.START_ARRAY);
+                    columns = new ArrayList<>();
+                    state = State.COLUMNS;
+                    break;
+                case "rows":
+                case "values":
+                    expect(token, JsonToken.START_ARRAY);
+                    if (decoder.columnDecoders == null && results.isRunning()) {
+                        // a running async search has no columns nor rows yet
+                        skip(State.FIELDS);
+                        break;
+                    }
+                    if (decoder.columnDecoders == null) {
+                        throw new IOException("Received " + field + " before the columns");
+                    }
+                    vectors = newVectors(decoder.pageSize);
+                    columnIndex = 0;
+                    state = field.equals("rows") ? State.ROWS : State.VALUES;
+                    break;
+                case "cursor":
+                    results.setCursor(token == JsonToken.VALUE_NULL ? null : parser.getText());
+                    state = State.FIELDS;
+                    break;
+                case "id":
+                    results.setId(token == JsonToken.VALUE_NULL ? null : parser.getText());
+                    state = State.FIELDS;
+                    break;
+                case "is_running":
+                    results.setRunning(token == JsonToken.VALUE_TRUE);
+                    state = State.FIELDS;
+                    break;
+                case "is_partial":
+                    results.setPartial(token == JsonToken.VALUE_TRUE);
+                    state = State.FIELDS;
+                    break;
+                default:
+                    if (token.isStructStart()) {
+                        skip(State.FIELDS);
+                    } else {
+                        state = State.FIELDS;
+                    }
+            }
+        }
+
+        @SuppressWarnings("unchecked")
+        private void nestedValue(JsonParser parser, JsonToken token) throws IOException {
+            Object value;
+            if (token == JsonToken.FIELD_NAME) {
+                nestedKeys.push(parser.getCurrentName());
+                return;
+            } else if (token.isStructStart()) {
+                nested.push(token == JsonToken.START_ARRAY ? new ArrayList<>() : new LinkedHashMap<>());
+                return;
+            } else if (token.isStructEnd()) {
+                value = nested.pop();
+                if (nested.isEmpty()) {
+                    if (afterNested == State.ROW) {
+                        checkRowWidth();
+                        vectors[columnIndex++].appendValue(value);
+                    } else {
+                        vectors[columnIndex].appendValue(value);
+                    }
+                    state = afterNested;
+                    return;
+                }
+            } else {
+                value = scalar(parser, token);
+            }
+            Object container = nested.peek();
+            if (container instanceof List) {
+                ((List<Object>) container).add(value);
+            } else {
+                ((Map<String, Object>) container).put(nestedKeys.pop(), value);
+            }
+        }
+
+        /**
+         * Starts decoding an array or object value, built as a whole before it
+         * is added to the vector of its column.
+         */
+        private void nest(JsonToken token, State returnTo) {
+            nested.push(token == JsonToken.START_ARRAY ? new ArrayList<>() : new LinkedHashMap<>());
+            afterNested = returnTo;
+            state = State.NESTED;
+        }
+
+        /**
+         * Ends a page received in columnar layout, padding with nulls the
+         * columns that are shorter than the longest one.
+         */
+        private void endValues() {
+            for (ColumnVector vector : vectors) {
+                rowCount = Math.max(rowCount, vector.size());
+            }
+            for (ColumnVector vector : vectors) {
+                while (vector.size() < rowCount) {
+                    vector.appendNull();
+                }
+            }
+        }
+
+        private void checkRowWidth() throws IOException {
+            if (columnIndex >= vectors.length) {
+                throw new IOException("Row has more values than the " + vectors.length + " columns");
+            }
+        }
+
+        private ColumnVector[] newVectors(int capacity) {
+            ColumnDecoder[] decoders = decoder.columnDecoders;
+            ColumnVector[] vectors = new ColumnVector[decoders == null ? 0 : decoders.length];
+            for (int i = 0; i < vectors.length; i++) {
+                vectors[i] = decoders[i].newVector(capacity);
+            }
+            return vectors;
+        }
+
+        private void skip(State returnTo) {
+            afterSkip = returnTo;
+            skipDepth = 1;
+            state = State.SKIP;
+        }
+
+        private static Object scalar(JsonParser parser, JsonToken token) throws IOException {
+            switch (token) {
+                case VALUE_NULL:
+                    return null;
+                case VALUE_STRING:
+                    return parser.getText();
+                case VALUE_NUMBER_INT:
+                    return parser.getNumberValue();
+                case VALUE_NUMBER_FLOAT:
+                    return ColumnDecoder.doubleValue(parser);
+                case VALUE_TRUE:
+                    return Boolean.TRUE;
+                case VALUE_FALSE:
+                    return Boolean.FALSE;
+                default:
+                    throw new IOException("Unexpected token " + token);
+            }
+        }
+
+        private static void expect(JsonToken actual, JsonToken expected) throws IOException {
+            if (actual != expected) {
+                throw new IOException("Unexpected token " + actual + ", expected " + expected);
+            }
+        }
+    }
+}
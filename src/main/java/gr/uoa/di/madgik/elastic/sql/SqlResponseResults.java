@@ -5,7 +5,13 @@ import java.util.List;
 public class SqlResponseResults {
 
     List<ColumnInfo> columns;
-    List<List<Object>> rows;
+    ColumnVector[] vectors;
+    int rowCount;
+    String cursor;
+    String id;
+    boolean running;
+    boolean partial;
+    private long size = -1;
 
     public SqlResponseResults() {
     }
@@ -19,12 +25,87 @@ public class SqlResponseResults {
         return this;
     }
 
-    public List<List<Object>> getRows() {
-        return rows;
+    /**
+     * @return the values of the page, one vector per column
+     */
+    public ColumnVector[] getVectors() {
+        return vectors;
     }
 
-    public SqlResponseResults setRows(List<List<Object>> rows) {
-        this.rows = rows;
+    public SqlResponseResults setVectors(ColumnVector[] vectors) {
+        this.vectors = vectors;
+        this.size = -1;
+        return this;
+    }
+
+    /**
+     * @return the approximate number of bytes of heap taken by the values of the page
+     */
+    public long estimateSize() {
+        if (size < 0) {
+            long bytes = 0;
+            if (vectors != null) {
+                for (ColumnVector vector : vectors) {
+                    bytes += vector.estimateSize();
+                }
+            }
+            size = bytes;
+        }
+        return size;
+    }
+
+    public int getRowCount() {
+        return rowCount;
+    }
+
+    public SqlResponseResults setRowCount(int rowCount) {
+        this.rowCount = rowCount;
+        return this;
+    }
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public SqlResponseResults setCursor(String cursor) {
+        this.cursor = cursor;
+        return this;
+    }
+
+    /**
+     * @return the id of the async search of the query, or null if the query
+     * was not run as an async search or its results were not stored
+     */
+    public String getId() {
+        return id;
+    }
+
+    public SqlResponseResults setId(String id) {
+        this.id = id;
+        return this;
+    }
+
+    /**
+     * @return true if the async search of the query is still running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    public SqlResponseResults setRunning(boolean running) {
+        this.running = running;
+        return this;
+    }
+
+    /**
+     * @return true if the rows are not the complete results of the async search
+     */
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public SqlResponseResults setPartial(boolean partial) {
+        this.partial = partial;
         return this;
     }
 }
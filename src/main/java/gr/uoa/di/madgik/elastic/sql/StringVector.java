@@ -0,0 +1,205 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A column of strings. Values start out dictionary encoded, each row holding
+ * the code of its value, which suits the low cardinality keyword columns most
+ * queries return. Once the dictionary grows past half of the rows the vector
+ * switches to storing the characters of all rows in one array, indexed by the
+ * end offset of each row.
+ */
+public class StringVector extends ColumnVector {
+
+    private static final int MIN_DICTIONARY_SIZE = 64;
+
+    private int[] codes;
+    private String[] dictionary;
+    private Map<String, Integer> dictionaryIndex;
+
+    private int[] ends;
+    private char[] chars;
+
+    public StringVector(ColumnDecoder decoder, int capacity) {
+        super(decoder);
+        this.codes = new int[capacity];
+        this.dictionary = new String[16];
+        this.dictionaryIndex = new HashMap<>();
+    }
+
+    /**
+     * @return true if the values are dictionary encoded
+     */
+    public boolean isDictionaryEncoded() {
+        return dictionaryIndex != null;
+    }
+
+    /**
+     * @return the dictionary codes of the rows, valid only if the vector is dictionary encoded
+     */
+    public int[] codes() {
+        return codes;
+    }
+
+    /**
+     * @return the dictionary, valid only if the vector is dictionary encoded
+     */
+    public String[] dictionary() {
+        return dictionary;
+    }
+
+    /**
+     * @return the number of entries in the dictionary
+     */
+    public int dictionarySize() {
+        return dictionaryIndex == null ? 0 : dictionaryIndex.size();
+    }
+
+    @Override
+    protected void appendScalar(JsonParser parser, JsonToken token) throws IOException {
+        if (token != JsonToken.VALUE_STRING) {
+            appendValue(decoder.decode(parser, token));
+        } else if (dictionaryIndex != null) {
+            ensureCapacity(size + 1);
+            String value = parser.getText();
+            Integer code = dictionaryIndex.get(value);
+            if (code == null) {
+                code = dictionaryIndex.size();
+                if (code >= MIN_DICTIONARY_SIZE && code > size / 2) {
+                    toOffsets();
+                    appendChars(value.toCharArray(), 0, value.length());
+                    return;
+                }
+                if (code == dictionary.length) {
+                    dictionary = Arrays.copyOf(dictionary, code * 2);
+                }
+                dictionary[code] = value;
+                dictionaryIndex.put(value, code);
+            }
+            codes[size++] = code;
+        } else {
+            ensureCapacity(size + 1);
+            appendChars(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+        }
+    }
+
+    private void appendChars(char[] source, int offset, int length) {
+        int start = size == 0 ? 0 : ends[size - 1];
+        if (start + length > chars.length) {
+            chars = Arrays.copyOf(chars, grow(chars.length, start + length));
+        }
+        System.arraycopy(source, offset, chars, start, length);
+        ends[size++] = start + length;
+    }
+
+    /**
+     * Re-encodes the rows received so far with offsets.
+     */
+    private void toOffsets() {
+        int length = 0;
+        for (int row = 0; row < size; row++) {
+            if (!isNull(row) && other(row) == null) {
+                length += dictionary[codes[row]].length();
+            }
+        }
+        ends = new int[codes.length];
+        chars = new char[Math.max(length * 2, 16)];
+        int end = 0;
+        for (int row = 0; row < size; row++) {
+            if (!isNull(row) && other(row) == null) {
+                String value = dictionary[codes[row]];
+                value.getChars(0, value.length(), chars, end);
+                end += value.length();
+            }
+            ends[row] = end;
+        }
+        codes = null;
+        dictionary = null;
+        dictionaryIndex = null;
+    }
+
+    @Override
+    public void appendNull() {
+        super.appendNull();
+        closeRow();
+    }
+
+    @Override
+    public void appendValue(Object value) {
+        super.appendValue(value);
+        if (value != null) {
+            closeRow();
+        }
+    }
+
+    /**
+     * Records an empty extent for a row that is null or kept aside.
+     */
+    private void closeRow() {
+        if (ends != null) {
+            ends[size - 1] = size == 1 ? 0 : ends[size - 2];
+        }
+    }
+
+    @Override
+    protected void ensureCapacity(int capacity) {
+        if (capacity > capacity()) {
+            int length = grow(capacity(), capacity);
+            if (ends != null) {
+                ends = Arrays.copyOf(ends, length);
+            } else {
+                codes = Arrays.copyOf(codes, length);
+            }
+        }
+    }
+
+    @Override
+    protected int capacity() {
+        return ends != null ? ends.length : codes.length;
+    }
+
+    @Override
+    protected long valuesSize() {
+        if (ends != null) {
+            return 32 + 4L * ends.length + 2L * chars.length;
+        }
+        long bytes = 32 + 4L * codes.length + 8L * dictionary.length;
+        for (int code = 0; code < dictionaryIndex.size(); code++) {
+            // the string, its entry in the index and the boxed code
+            bytes += estimateSize(dictionary[code]) + 48;
+        }
+        return bytes;
+    }
+
+    @Override
+    public Object getObject(int row) {
+        if (isNull(row)) {
+            return null;
+        }
+        Object other = other(row);
+        return other != null ? other : value(row);
+    }
+
+    @Override
+    public String getString(int row) {
+        if (isNull(row)) {
+            return null;
+        }
+        Object other = other(row);
+        return other != null ? decoder.getString(other) : value(row);
+    }
+
+    private String value(int row) {
+        if (ends == null) {
+            return dictionary[codes[row]];
+        }
+        int start = row == 0 ? 0 : ends[row - 1];
+        return new String(chars, start, ends[row] - start);
+    }
+}
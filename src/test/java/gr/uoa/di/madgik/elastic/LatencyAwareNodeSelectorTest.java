@@ -0,0 +1,112 @@
+package gr.uoa.di.madgik.elastic;
+
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpRequestWrapper;
+import org.apache.http.message.BasicHttpResponse;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpCoreContext;
+import org.elasticsearch.client.Node;
+import org.elasticsearch.client.NodeSelector;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class LatencyAwareNodeSelectorTest {
+
+    private static final HttpHost FAST = new HttpHost("fast", 9200);
+    private static final HttpHost SLOW = new HttpHost("slow", 9200);
+    private static final HttpHost NEW = new HttpHost("new", 9200);
+
+    private final LatencyAwareNodeSelector selector = new LatencyAwareNodeSelector(NodeSelector.ANY);
+
+    private static HttpContext context(HttpHost host) {
+        HttpContext context = new BasicHttpContext();
+        context.setAttribute(HttpCoreContext.HTTP_TARGET_HOST, host);
+        return context;
+    }
+
+    private HttpContext send(HttpHost host, HttpGet request) throws Exception {
+        HttpContext context = context(host);
+        selector.requestInterceptor().process(HttpRequestWrapper.wrap(request), context);
+        return context;
+    }
+
+    private void exchange(HttpHost host, long millis) throws Exception {
+        HttpContext context = send(host, new HttpGet("/_sql"));
+        Thread.sleep(millis);
+        HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        selector.responseInterceptor().process(response, context);
+    }
+
+    private List<HttpHost> select(HttpHost... hosts) {
+        List<Node> nodes = new ArrayList<>();
+        for (HttpHost host : hosts) {
+            nodes.add(new Node(host));
+        }
+        selector.select(nodes);
+        List<HttpHost> selected = new ArrayList<>();
+        for (Node node : nodes) {
+            selected.add(node.getHost());
+        }
+        return selected;
+    }
+
+    private int inFlight(HttpHost host) {
+        return selector.getStats().get(host.toURI()).getInFlight();
+    }
+
+    @Test
+    void keepsTheNodesWithinToleranceOfTheFastest() throws Exception {
+        exchange(FAST, 0);
+        exchange(SLOW, 100);
+        assertEquals(Collections.singletonList(FAST), select(FAST, SLOW));
+    }
+
+    @Test
+    void keepsUnmeasuredNodesAlongsideTheFastest() throws Exception {
+        exchange(FAST, 0);
+        exchange(SLOW, 100);
+        assertEquals(Arrays.asList(FAST, NEW), select(FAST, SLOW, NEW));
+    }
+
+    @Test
+    void keepsEveryNodeUntilOneIsMeasured() {
+        assertEquals(Arrays.asList(FAST, SLOW, NEW), select(FAST, SLOW, NEW));
+    }
+
+    @Test
+    void dropsFailedAttempts() throws Exception {
+        send(FAST, new HttpGet("/_sql"));
+        send(FAST, new HttpGet("/_sql"));
+        assertEquals(2, inFlight(FAST));
+        selector.failureListener(null).onFailure(new Node(FAST));
+        assertEquals(1, inFlight(FAST));
+        assertEquals(1, selector.getStats().get(FAST.toURI()).getFailures());
+    }
+
+    @Test
+    void dropsCancelledAttempts() throws Exception {
+        HttpGet request = new HttpGet("/_sql");
+        send(FAST, request);
+        send(FAST, new HttpGet("/_sql"));
+        assertEquals(2, inFlight(FAST));
+        request.abort();
+        assertEquals(1, inFlight(FAST));
+    }
+
+    @Test
+    void completedAttemptsAreNotInFlight() throws Exception {
+        exchange(FAST, 0);
+        assertEquals(0, inFlight(FAST));
+        assertEquals(1, selector.getStats().get(FAST.toURI()).getSamples());
+    }
+}
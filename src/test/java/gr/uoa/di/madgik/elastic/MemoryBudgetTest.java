@@ -0,0 +1,99 @@
+package gr.uoa.di.madgik.elastic;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MemoryBudgetTest {
+
+    @Test
+    void reservesUpToTheLimit() {
+        MemoryBudget budget = new MemoryBudget("connection", 100, MemoryBudget.Policy.SPILL, null);
+        assertTrue(budget.tryReserve(60));
+        assertFalse(budget.tryReserve(50));
+        assertEquals(60, budget.getUsed());
+        assertTrue(budget.tryReserve(40));
+        budget.release(100);
+        assertEquals(0, budget.getUsed());
+        assertEquals(100, budget.getPeak());
+    }
+
+    @Test
+    void noLimitReservesEverything() {
+        MemoryBudget budget = new MemoryBudget("connection", 0, MemoryBudget.Policy.FAIL, null);
+        assertTrue(budget.tryReserve(Integer.MAX_VALUE));
+        assertEquals(Integer.MAX_VALUE, budget.getUsed());
+    }
+
+    @Test
+    void reservesAgainstTheParent() {
+        MemoryBudget driver = new MemoryBudget("driver", 100, MemoryBudget.Policy.SPILL, null);
+        MemoryBudget first = new MemoryBudget("first", 80, MemoryBudget.Policy.SPILL, driver);
+        MemoryBudget second = new MemoryBudget("second", 80, MemoryBudget.Policy.SPILL, driver);
+        assertTrue(first.tryReserve(70));
+        // fits the second connection, but not the driver
+        assertFalse(second.tryReserve(40));
+        assertEquals(0, second.getUsed());
+        assertEquals(70, driver.getUsed());
+        assertTrue(second.tryReserve(30));
+        assertEquals(100, driver.getUsed());
+        first.release(70);
+        assertEquals(30, driver.getUsed());
+        assertEquals(100, driver.getPeak());
+    }
+
+    @Test
+    void forcedReservationsCountAgainstTheParent() {
+        MemoryBudget driver = new MemoryBudget("driver", 100, MemoryBudget.Policy.SPILL, null);
+        MemoryBudget connection = new MemoryBudget("connection", 50, MemoryBudget.Policy.SPILL, driver);
+        connection.reserve(120);
+        assertEquals(120, connection.getUsed());
+        assertEquals(120, driver.getUsed());
+        assertFalse(connection.tryReserve(1));
+        connection.release(120);
+        assertTrue(connection.tryReserve(50));
+    }
+
+    @Test
+    void spilledPagesAreCountedByTheParent() {
+        MemoryBudget driver = new MemoryBudget("driver", 0, MemoryBudget.Policy.SPILL, null);
+        MemoryBudget connection = new MemoryBudget("connection", 10, MemoryBudget.Policy.SPILL, driver);
+        connection.spilled();
+        connection.spilled();
+        assertEquals(2, connection.getSpilledPages());
+        assertEquals(2, driver.getSpilledPages());
+    }
+
+    @Test
+    void rejectionNamesTheExceededBudget() {
+        MemoryBudget driver = new MemoryBudget("driver", 100, MemoryBudget.Policy.FAIL, null);
+        MemoryBudget connection = new MemoryBudget("connection", 1000, MemoryBudget.Policy.FAIL, driver);
+        assertTrue(connection.tryReserve(90));
+        assertFalse(connection.tryReserve(20));
+        MemoryLimitExceededException e = connection.rejected(20);
+        assertEquals(MemoryLimitExceededException.SQL_STATE, e.getSQLState());
+        assertTrue(e.getMessage().contains("of the driver: 90 of 100 bytes"), e.getMessage());
+        assertEquals(1, connection.getRejectedPages());
+        assertEquals(1, driver.getRejectedPages());
+    }
+
+    @Test
+    void rejectsNegativeLimits() {
+        MemoryBudget budget = new MemoryBudget("connection", 0, MemoryBudget.Policy.SPILL, null);
+        assertThrows(IllegalArgumentException.class, () -> budget.setLimit(-1));
+        budget.setLimit(10);
+        assertFalse(budget.tryReserve(11));
+    }
+
+    @Test
+    void parsesPolicies() {
+        assertSame(MemoryBudget.Policy.SPILL, MemoryBudget.Policy.of(" spill "));
+        assertSame(MemoryBudget.Policy.FAIL, MemoryBudget.Policy.of("FAIL"));
+        assertNull(MemoryBudget.Policy.of("drop"));
+    }
+}
@@ -0,0 +1,213 @@
+package gr.uoa.di.madgik.elastic;
+
+import gr.uoa.di.madgik.elastic.sql.SqlResponseDecoder;
+import gr.uoa.di.madgik.elastic.sql.SqlResponseResults;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageFetcherTest {
+
+    private final SqlResponseDecoder decoder = new SqlResponseDecoder();
+    private JdbcConnection connection;
+    private StubStatement statement;
+
+    private StubStatement statement(Properties properties) throws Exception {
+        connection = StubStatement.connection(properties);
+        statement = new StubStatement(connection);
+        return statement;
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        connection.close();
+    }
+
+    private static long first(SqlResponseResults page) throws SQLException {
+        return page.getVectors()[0].getLong(0);
+    }
+
+    @Test
+    void prefetchesUpToTheDepth() throws Exception {
+        StubStatement statement = statement(new Properties());
+        PageFetcher fetcher = new PageFetcher(statement, decoder, "c0", 2, Deadline.NONE);
+        statement.nextFetch().respond(0, 10, "c1");
+        StubStatement.Fetch second = statement.nextFetch();
+        assertEquals("c1", second.cursor);
+        second.respond(10, 10, "c2");
+        // two pages are queued, the third is not requested yet
+        assertNull(statement.fetches.poll(100, TimeUnit.MILLISECONDS));
+
+        assertEquals(0, first(fetcher.take()));
+        StubStatement.Fetch third = statement.nextFetch();
+        assertEquals("c2", third.cursor);
+        third.respond(20, 5, null);
+        assertEquals(10, first(fetcher.take()));
+        assertEquals(20, first(fetcher.take()));
+        assertNull(fetcher.take());
+        assertTrue(statement.fetches.isEmpty());
+        assertEquals(0, connection.getMemoryBudget().getUsed());
+    }
+
+    @Test
+    void fetchesOnDemandWithoutDepth() throws Exception {
+        StubStatement statement = statement(new Properties());
+        PageFetcher fetcher = new PageFetcher(statement, decoder, "c0", 0, Deadline.NONE);
+        assertNull(statement.fetches.poll(100, TimeUnit.MILLISECONDS));
+        CompletableFuture<SqlResponseResults> page = fetcher.takeAsync();
+        assertFalse(page.isDone());
+        statement.nextFetch().respond(0, 3, null);
+        assertEquals(0, first(page.get(5, TimeUnit.SECONDS)));
+        assertNull(fetcher.takeAsync().get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void acceptsASingleAsyncWaiter() throws Exception {
+        StubStatement statement = statement(new Properties());
+        PageFetcher fetcher = new PageFetcher(statement, decoder, "c0", 1, Deadline.NONE);
+        CompletableFuture<SqlResponseResults> first = fetcher.takeAsync();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> fetcher.takeAsync().get(5, TimeUnit.SECONDS));
+        assertInstanceOf(SQLException.class, e.getCause());
+        statement.nextFetch().respond(0, 1, null);
+        assertEquals(0, first(first.get(5, TimeUnit.SECONDS)));
+    }
+
+    @Test
+    void cancelAbortsTheRequestAndClosesTheCursor() throws Exception {
+        StubStatement statement = statement(new Properties());
+        PageFetcher fetcher = new PageFetcher(statement, decoder, "c0", 1, Deadline.NONE);
+        StubStatement.Fetch fetch = statement.nextFetch();
+        fetcher.cancel();
+        assertTrue(fetch.isCancelled());
+        assertEquals(Collections.singletonList("c0"), statement.closedCursors);
+        SQLException e = assertThrows(SQLException.class, fetcher::take);
+        assertEquals("57014", e.getSQLState());
+    }
+
+    @Test
+    void failuresFailTheNextTake() throws Exception {
+        StubStatement statement = statement(new Properties());
+        PageFetcher fetcher = new PageFetcher(statement, decoder, "c0", 1, Deadline.NONE);
+        statement.nextFetch().fail(new java.io.IOException("connection reset"));
+        SQLException e = assertThrows(SQLException.class, fetcher::take);
+        assertEquals("connection reset", e.getCause().getMessage());
+    }
+
+    @Test
+    void takeTimesOutAtTheDeadline() throws Exception {
+        StubStatement statement = statement(new Properties());
+        PageFetcher fetcher = new PageFetcher(statement, decoder, "c0", 1, Deadline.afterSeconds(1));
+        StubStatement.Fetch fetch = statement.nextFetch();
+        assertThrows(SQLTimeoutException.class, fetcher::take);
+        assertTrue(fetch.isCancelled());
+        assertEquals(Collections.singletonList("c0"), statement.closedCursors);
+    }
+
+    @Test
+    void takeAsyncTimesOutAtTheDeadline() throws Exception {
+        StubStatement statement = statement(new Properties());
+        PageFetcher fetcher = new PageFetcher(statement, decoder, "c0", 1, Deadline.afterSeconds(1));
+        StubStatement.Fetch fetch = statement.nextFetch();
+        ExecutionException e = assertThrows(ExecutionException.class, () -> fetcher.takeAsync().get(5, TimeUnit.SECONDS));
+        assertInstanceOf(SQLTimeoutException.class, e.getCause());
+        assertTrue(fetch.isCancelled());
+    }
+
+    @Test
+    void closeCompletesTheAsyncWaiter() throws Exception {
+        StubStatement statement = statement(new Properties());
+        PageFetcher fetcher = new PageFetcher(statement, decoder, "c0", 1, Deadline.NONE);
+        CompletableFuture<SqlResponseResults> page = fetcher.takeAsync();
+        fetcher.close();
+        assertNull(page.get(5, TimeUnit.SECONDS));
+        assertNull(fetcher.take());
+    }
+
+    @Test
+    void takeAsyncRacingClose() throws Exception {
+        StubStatement statement = statement(new Properties());
+        for (int i = 0; i < 200; i++) {
+            String next = "n" + i;
+            PageFetcher fetcher = new PageFetcher(statement, decoder, "c" + i, 1, Deadline.NONE);
+            StubStatement.Fetch fetch = statement.nextFetch();
+            CountDownLatch start = new CountDownLatch(1);
+            CompletableFuture<SqlResponseResults> page = CompletableFuture.supplyAsync(() -> {
+                await(start);
+                return fetcher.takeAsync();
+            }).thenCompose(future -> future);
+            CompletableFuture<Void> respond = CompletableFuture.runAsync(() -> {
+                await(start);
+                try {
+                    fetch.respond(0, 5, next);
+                } catch (Exception e) {
+                    throw new AssertionError(e);
+                }
+            });
+            CompletableFuture<Void> close = CompletableFuture.runAsync(() -> {
+                await(start);
+                fetcher.close();
+            });
+            start.countDown();
+            respond.get(5, TimeUnit.SECONDS);
+            close.get(5, TimeUnit.SECONDS);
+            // the waiter gets the page if it came first, and nothing otherwise, but never hangs
+            SqlResponseResults result = page.get(5, TimeUnit.SECONDS);
+            if (result != null) {
+                assertEquals(0, first(result));
+            }
+            // a fetched page comes with a cursor, which is released either way
+            assertTrue(statement.closedCursors.contains(next), "cursor " + next + " was not closed");
+            statement.fetches.clear();
+        }
+        assertEquals(0, connection.getMemoryBudget().getUsed());
+    }
+
+    @Test
+    void spillsPagesThatDoNotFitTheBudget() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("memoryLimit", "1");
+        StubStatement statement = statement(properties);
+        PageFetcher fetcher = new PageFetcher(statement, decoder, "c0", 2, Deadline.NONE);
+        statement.nextFetch().respond(0, 100, "c1");
+        statement.nextFetch().respond(100, 100, null);
+        assertEquals(0, first(fetcher.take()));
+        assertEquals(100, first(fetcher.take()));
+        assertNull(fetcher.take());
+        assertEquals(2, connection.getMemoryBudget().getSpilledPages());
+        assertEquals(0, connection.getMemoryBudget().getUsed());
+    }
+
+    @Test
+    void failsPagesThatDoNotFitTheBudget() throws Exception {
+        Properties properties = new Properties();
+        properties.setProperty("memoryLimit", "1");
+        properties.setProperty("memoryPolicy", "fail");
+        StubStatement statement = statement(properties);
+        PageFetcher fetcher = new PageFetcher(statement, decoder, "c0", 1, Deadline.NONE);
+        statement.nextFetch().respond(0, 100, "c1");
+        assertThrows(MemoryLimitExceededException.class, fetcher::take);
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
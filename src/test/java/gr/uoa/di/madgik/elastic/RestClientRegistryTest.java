@@ -0,0 +1,128 @@
+package gr.uoa.di.madgik.elastic;
+
+import org.apache.http.HttpHost;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.nio.reactor.IOReactorStatus;
+import org.elasticsearch.client.RestClient;
+import org.junit.jupiter.api.Test;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RestClientRegistryTest {
+
+    private static List<Object> key(String name) {
+        return Arrays.asList(RestClientRegistryTest.class.getName(), name);
+    }
+
+    private static RestClient client() {
+        return RestClient.builder(new HttpHost("localhost", 9200)).build();
+    }
+
+    @Test
+    void sharesTheClientOfAKeyUntilTheLastLeaseIsReleased() throws Exception {
+        AtomicInteger created = new AtomicInteger();
+        AtomicInteger closed = new AtomicInteger();
+        RestClientRegistry.Factory factory = attachments -> {
+            created.incrementAndGet();
+            attachments.add((Closeable) closed::incrementAndGet);
+            return client();
+        };
+        int size = RestClientRegistry.size();
+        RestClientRegistry.Lease first = RestClientRegistry.acquire(key("shared"), factory);
+        RestClientRegistry.Lease second = RestClientRegistry.acquire(key("shared"), factory);
+        assertSame(first.getClient(), second.getClient());
+        assertEquals(1, created.get());
+        assertEquals(size + 1, RestClientRegistry.size());
+
+        first.release();
+        // releasing twice must not drop the reference of the second lease
+        first.release();
+        assertEquals(0, closed.get());
+        assertTrue(second.getClient().isRunning());
+
+        second.release();
+        assertEquals(1, closed.get());
+        assertFalse(second.getClient().isRunning());
+        assertEquals(size, RestClientRegistry.size());
+    }
+
+    @Test
+    void createsAClientPerKey() throws Exception {
+        RestClientRegistry.Lease first = RestClientRegistry.acquire(key("first"), attachments -> client());
+        RestClientRegistry.Lease second = RestClientRegistry.acquire(key("second"), attachments -> client());
+        try {
+            assertNotSame(first.getClient(), second.getClient());
+        } finally {
+            first.release();
+            second.release();
+        }
+    }
+
+    @Test
+    void createsANewClientOnceReleased() throws Exception {
+        RestClientRegistry.Lease first = RestClientRegistry.acquire(key("again"), attachments -> client());
+        first.release();
+        RestClientRegistry.Lease second = RestClientRegistry.acquire(key("again"), attachments -> client());
+        try {
+            assertNotSame(first.getClient(), second.getClient());
+            assertTrue(second.getClient().isRunning());
+        } finally {
+            second.release();
+        }
+    }
+
+    @Test
+    void findsAttachmentsByType() throws Exception {
+        LatencyTracker tracker = new LatencyTracker();
+        RestClientRegistry.Lease lease = RestClientRegistry.acquire(key("attachments"), attachments -> {
+            attachments.add(tracker);
+            return client();
+        });
+        try {
+            assertSame(tracker, lease.getAttachment(LatencyTracker.class));
+            assertEquals(null, lease.getAttachment(LatencyAwareNodeSelector.class));
+        } finally {
+            lease.release();
+        }
+    }
+
+    @Test
+    void releasesTheAttachmentsOfAFailedFactory() throws Exception {
+        DefaultConnectingIOReactor reactor = new DefaultConnectingIOReactor();
+        PoolingNHttpClientConnectionManager connectionManager = new PoolingNHttpClientConnectionManager(reactor);
+        IdleConnectionEvictor[] evictor = new IdleConnectionEvictor[1];
+        AtomicInteger closed = new AtomicInteger();
+        int size = RestClientRegistry.size();
+        Exception e = assertThrows(IllegalStateException.class, () -> RestClientRegistry.acquire(key("failed"), attachments -> {
+            attachments.add(connectionManager);
+            evictor[0] = new IdleConnectionEvictor(connectionManager, 60_000);
+            attachments.add(evictor[0]);
+            attachments.add((Closeable) closed::incrementAndGet);
+            throw new IllegalStateException("sniffer setup failed");
+        }));
+        assertEquals("sniffer setup failed", e.getMessage());
+        assertEquals(1, closed.get());
+        assertTrue(evictor[0].isClosed());
+        assertEquals(IOReactorStatus.SHUT_DOWN, reactor.getStatus());
+        assertEquals(size, RestClientRegistry.size());
+
+        // the key is not taken by the failed client
+        RestClientRegistry.Lease lease = RestClientRegistry.acquire(key("failed"), attachments -> client());
+        try {
+            assertTrue(lease.getClient().isRunning());
+        } finally {
+            lease.release();
+        }
+    }
+}
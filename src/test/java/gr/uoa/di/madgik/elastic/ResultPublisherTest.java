@@ -0,0 +1,213 @@
+package gr.uoa.di.madgik.elastic;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResultPublisherTest {
+
+    private JdbcConnection connection;
+    private StubStatement statement;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        connection = StubStatement.connection(new Properties());
+        statement = new StubStatement(connection);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        connection.close();
+    }
+
+    /**
+     * Records the signals it receives, requesting nothing by itself.
+     */
+    private static class Recorder<T> implements Flow.Subscriber<T> {
+
+        final List<T> items = new ArrayList<>();
+        final List<Throwable> errors = new ArrayList<>();
+        int completions;
+        Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+        }
+
+        @Override
+        public void onNext(T item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            errors.add(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            completions++;
+        }
+
+        List<Long> ids() throws SQLException {
+            List<Long> ids = new ArrayList<>();
+            for (T item : items) {
+                if (item instanceof Object[]) {
+                    ids.add((Long) ((Object[]) item)[0]);
+                } else {
+                    ColumnBatch batch = (ColumnBatch) item;
+                    for (int row = batch.getOffset(); row < batch.getOffset() + batch.getRowCount(); row++) {
+                        ids.add(batch.getVector(1).getLong(row));
+                    }
+                }
+            }
+            return ids;
+        }
+    }
+
+    private static List<Long> range(long from, long to) {
+        List<Long> ids = new ArrayList<>();
+        for (long id = from; id < to; id++) {
+            ids.add(id);
+        }
+        return ids;
+    }
+
+    @Test
+    void executesTheQueryOnTheFirstRequest() throws Exception {
+        AtomicInteger executions = new AtomicInteger();
+        Flow.Publisher<Object[]> publisher = ResultPublisher.rows(() -> {
+            executions.incrementAndGet();
+            return CompletableFuture.completedFuture(resultSet(2, null));
+        });
+        Recorder<Object[]> subscriber = new Recorder<>();
+        publisher.subscribe(subscriber);
+        assertEquals(0, executions.get());
+        subscriber.subscription.request(1);
+        assertEquals(1, executions.get());
+        assertEquals(range(0, 1), subscriber.ids());
+    }
+
+    @Test
+    void publishesRowsAsDemanded() throws Exception {
+        Recorder<Object[]> subscriber = new Recorder<>();
+        ResultPublisher.rows(() -> CompletableFuture.completedFuture(resultSet(3, "c1"))).subscribe(subscriber);
+        subscriber.subscription.request(2);
+        assertEquals(range(0, 2), subscriber.ids());
+        assertTrue(statement.fetches.isEmpty());
+
+        // the next page is fetched only once the first one is published and more is demanded
+        subscriber.subscription.request(2);
+        assertEquals(range(0, 3), subscriber.ids());
+        StubStatement.Fetch fetch = statement.nextFetch();
+        assertEquals("c1", fetch.cursor);
+        fetch.respond(3, 2, null);
+        assertEquals(range(0, 4), subscriber.ids());
+        assertEquals(0, subscriber.completions);
+
+        subscriber.subscription.request(5);
+        assertEquals(range(0, 5), subscriber.ids());
+        assertEquals(1, subscriber.completions);
+        assertEquals(Collections.emptyList(), subscriber.errors);
+    }
+
+    @Test
+    void publishesBatchesOfAtMostTheBatchSize() throws Exception {
+        Recorder<ColumnBatch> subscriber = new Recorder<>();
+        ResultPublisher.batches(() -> CompletableFuture.completedFuture(resultSet(3, "c1")), 2).subscribe(subscriber);
+        subscriber.subscription.request(Long.MAX_VALUE);
+        statement.nextFetch().respond(3, 4, null);
+        List<Integer> sizes = new ArrayList<>();
+        for (ColumnBatch batch : subscriber.items) {
+            sizes.add(batch.getRowCount());
+        }
+        assertEquals(List.of(2, 1, 2, 2), sizes);
+        assertEquals(range(0, 7), subscriber.ids());
+        assertEquals(1, subscriber.completions);
+    }
+
+    @Test
+    void cancelClosesTheCursor() throws Exception {
+        Recorder<Object[]> subscriber = new Recorder<>();
+        ResultPublisher.rows(() -> CompletableFuture.completedFuture(resultSet(1, "c1"))).subscribe(subscriber);
+        subscriber.subscription.request(2);
+        StubStatement.Fetch fetch = statement.nextFetch();
+        subscriber.subscription.cancel();
+        assertTrue(fetch.isCancelled());
+        assertEquals(List.of("c1"), statement.closedCursors);
+        subscriber.subscription.request(1);
+        assertEquals(range(0, 1), subscriber.ids());
+        assertEquals(0, subscriber.completions);
+        assertEquals(Collections.emptyList(), subscriber.errors);
+        assertNull(statement.fetches.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void cancelCancelsAPendingQuery() throws Exception {
+        CompletableFuture<JdbcResultSet> execution = new CompletableFuture<>();
+        Recorder<Object[]> subscriber = new Recorder<>();
+        ResultPublisher.rows(() -> execution).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        subscriber.subscription.cancel();
+        assertTrue(execution.isCancelled());
+        assertEquals(Collections.emptyList(), subscriber.errors);
+    }
+
+    @Test
+    void failsOnANonPositiveRequest() throws Exception {
+        Recorder<Object[]> subscriber = new Recorder<>();
+        ResultPublisher.rows(() -> CompletableFuture.completedFuture(resultSet(3, "c1"))).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        subscriber.subscription.request(0);
+        subscriber.subscription.request(-1);
+        subscriber.subscription.request(1);
+        assertEquals(1, subscriber.errors.size());
+        assertInstanceOf(IllegalArgumentException.class, subscriber.errors.get(0));
+        assertEquals(range(0, 1), subscriber.ids());
+        assertEquals(0, subscriber.completions);
+        assertEquals(List.of("c1"), statement.closedCursors);
+    }
+
+    @Test
+    void failsWhenTheQueryFails() {
+        Recorder<Object[]> subscriber = new Recorder<>();
+        SQLException failure = new SQLException("parsing_exception");
+        ResultPublisher.rows(() -> CompletableFuture.failedFuture(failure)).subscribe(subscriber);
+        subscriber.subscription.request(1);
+        assertEquals(List.of(failure), subscriber.errors);
+    }
+
+    @Test
+    void acceptsASingleSubscriber() throws Exception {
+        Flow.Publisher<Object[]> publisher = ResultPublisher.rows(() -> CompletableFuture.completedFuture(resultSet(1, null)));
+        publisher.subscribe(new Recorder<>());
+        Recorder<Object[]> second = new Recorder<>();
+        publisher.subscribe(second);
+        assertEquals(1, second.errors.size());
+        assertInstanceOf(IllegalStateException.class, second.errors.get(0));
+    }
+
+    private JdbcResultSet resultSet(int rows, String next) {
+        try {
+            return statement.resultSet(rows, next);
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package gr.uoa.di.madgik.elastic;
+
+import gr.uoa.di.madgik.elastic.sql.ResponseFormat;
+import gr.uoa.di.madgik.elastic.sql.SqlResponseDecoder;
+import gr.uoa.di.madgik.elastic.sql.SqlResponseResults;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SpillFileTest {
+
+    private static final String COLUMNS = "\"columns\":[{\"name\":\"id\",\"type\":\"long\"},"
+            + "{\"name\":\"name\",\"type\":\"keyword\"},{\"name\":\"score\",\"type\":\"double\"}]";
+
+    @TempDir
+    Path directory;
+
+    private final SqlResponseDecoder decoder = new SqlResponseDecoder();
+
+    /**
+     * Decodes a page of rows {@code first} to {@code first + rows - 1}; the
+     * first page of a query carries the columns, the others only rows.
+     */
+    private SqlResponseResults page(long first, int rows) throws Exception {
+        StringBuilder body = new StringBuilder("{");
+        if (first == 0) {
+            body.append(COLUMNS).append(',');
+        }
+        body.append("\"rows\":[");
+        for (int row = 0; row < rows; row++) {
+            long id = first + row;
+            body.append(row == 0 ? "" : ",").append('[').append(id).append(',')
+                    .append(id % 3 == 0 ? "null" : "\"name-" + id + "\"").append(',').append(id / 4.0).append(']');
+        }
+        body.append("]}");
+        return decoder.decode(new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8)), ResponseFormat.JSON);
+    }
+
+    private static void assertPage(SqlResponseResults expected, SqlResponseResults actual) throws Exception {
+        assertEquals(expected.getRowCount(), actual.getRowCount());
+        for (int column = 0; column < expected.getVectors().length; column++) {
+            for (int row = 0; row < expected.getRowCount(); row++) {
+                assertEquals(expected.getVectors()[column].getObject(row), actual.getVectors()[column].getObject(row));
+            }
+        }
+    }
+
+    @Test
+    void readsPagesBackInAnyOrder() throws Exception {
+        List<SqlResponseResults> pages = new ArrayList<>();
+        try (SpillFile spill = new SpillFile(directory, decoder)) {
+            long first = 0;
+            for (int rows : new int[]{100, 3, 0, 250, 1}) {
+                SqlResponseResults page = page(first, rows);
+                spill.append(page);
+                if (rows > 0) {
+                    pages.add(page);
+                }
+                first += rows;
+            }
+            // empty pages are not kept
+            assertEquals(4, spill.getPageCount());
+            assertEquals(354, spill.getRowCount());
+            for (int page : new int[]{3, 0, 2, 1, 3, 1, 0}) {
+                assertPage(pages.get(page), spill.read(page));
+            }
+        }
+    }
+
+    @Test
+    void locatesThePageOfEveryRow() throws Exception {
+        try (SpillFile spill = new SpillFile(directory, decoder)) {
+            spill.append(page(0, 10));
+            spill.append(page(10, 5));
+            spill.append(page(15, 20));
+            assertEquals(0, spill.getFirstRow(0));
+            assertEquals(10, spill.getFirstRow(1));
+            assertEquals(15, spill.getFirstRow(2));
+            for (long row = 0; row < spill.getRowCount(); row++) {
+                int page = spill.pageOf(row);
+                SqlResponseResults results = spill.read(page);
+                int offset = (int) (row - spill.getFirstRow(page));
+                assertTrue(offset >= 0 && offset < results.getRowCount());
+                assertEquals(row, results.getVectors()[0].getLong(offset));
+            }
+        }
+    }
+
+    @Test
+    void growsPastTheInitialIndex() throws Exception {
+        try (SpillFile spill = new SpillFile(directory, decoder)) {
+            for (int page = 0; page < 40; page++) {
+                spill.append(page(page * 2L, 2));
+            }
+            assertEquals(40, spill.getPageCount());
+            assertEquals(39, spill.pageOf(79));
+            assertEquals(78, spill.read(39).getVectors()[0].getLong(0));
+        }
+    }
+
+    @Test
+    void deletesTheFileOnClose() throws Exception {
+        SpillFile spill = new SpillFile(directory, decoder);
+        spill.append(page(0, 10));
+        spill.read(0);
+        spill.close();
+        try (Stream<Path> files = Files.list(directory)) {
+            assertEquals(0, files.count());
+        }
+    }
+}
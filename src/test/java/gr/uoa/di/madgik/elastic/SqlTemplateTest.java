@@ -0,0 +1,110 @@
+package gr.uoa.di.madgik.elastic;
+
+import gr.uoa.di.madgik.elastic.sql.SqlParameter;
+import org.junit.jupiter.api.Test;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SqlTemplateTest {
+
+    private final List<SqlParameter> params = new ArrayList<>();
+    private final StringBuilder buffer = new StringBuilder();
+
+    private String bind(String sql, Object... values) throws SQLException {
+        SqlParameter[] parameters = new SqlParameter[values.length];
+        for (int i = 0; i < values.length; i++) {
+            parameters[i] = SqlParameter.of(values[i]);
+        }
+        params.clear();
+        return SqlTemplate.compile(sql).bind(parameters, params, buffer);
+    }
+
+    private List<Object> values() {
+        List<Object> values = new ArrayList<>();
+        for (SqlParameter parameter : params) {
+            values.add(parameter.getValue());
+        }
+        return values;
+    }
+
+    @Test
+    void bindsPlaceholdersInOrder() throws Exception {
+        String sql = "SELECT * FROM logs WHERE level = ? AND code > ? LIMIT ?";
+        assertSame(sql, bind(sql, "error", 500, 10));
+        assertEquals(Arrays.asList("error", 500, 10), values());
+        assertEquals(3, SqlTemplate.compile(sql).getParameterCount());
+    }
+
+    @Test
+    void ignoresPlaceholdersInQuotedText() {
+        assertEquals(1, SqlTemplate.compile("SELECT '?' AS q FROM logs WHERE a = ?").getParameterCount());
+        assertEquals(1, SqlTemplate.compile("SELECT \"what?\" FROM logs WHERE a = ?").getParameterCount());
+        // a doubled quote does not end the literal
+        assertEquals(1, SqlTemplate.compile("SELECT * FROM logs WHERE a = 'it''s ?' AND b = ?").getParameterCount());
+        assertEquals(0, SqlTemplate.compile("SELECT * FROM logs WHERE a = 'unterminated ?").getParameterCount());
+    }
+
+    @Test
+    void ignoresPlaceholdersInComments() throws Exception {
+        assertEquals(1, SqlTemplate.compile("SELECT * FROM logs -- where a = ?\nWHERE b = ?").getParameterCount());
+        assertEquals(1, SqlTemplate.compile("SELECT /* a = ? */ * FROM logs WHERE b = ?").getParameterCount());
+        assertEquals(0, SqlTemplate.compile("SELECT * FROM logs /* unterminated ?").getParameterCount());
+        assertEquals("SELECT * FROM logs -- a = ?\nWHERE b = ?",
+                bind("SELECT * FROM logs -- a = ?\nWHERE b = ?", 1));
+        assertEquals(Collections.singletonList(1), values());
+    }
+
+    @Test
+    void rewritesComparisonsWithNull() throws Exception {
+        assertEquals("SELECT * FROM logs WHERE a  is NULL  AND b = ?",
+                bind("SELECT * FROM logs WHERE a = ? AND b = ?", null, 2));
+        assertEquals(Collections.singletonList(2), values());
+        assertEquals("SELECT * FROM logs WHERE a  is NOT NULL ",
+                bind("SELECT * FROM logs WHERE a != ?", (Object) null));
+        assertEquals(Collections.emptyList(), values());
+    }
+
+    @Test
+    void keepsOtherComparisonsWithNull() throws Exception {
+        for (String sql : new String[]{"SELECT * FROM logs WHERE a <= ?", "SELECT * FROM logs WHERE a >= ?",
+                "SELECT * FROM logs WHERE a < ?", "SELECT * FROM logs WHERE a <> ?", "SELECT ? FROM logs"}) {
+            assertSame(sql, bind(sql, (Object) null));
+            assertEquals(Collections.singletonList(null), values());
+        }
+    }
+
+    @Test
+    void reusesTheBufferAcrossExecutions() throws Exception {
+        SqlTemplate template = SqlTemplate.compile("SELECT * FROM logs WHERE a = ?");
+        SqlParameter[] parameters = {SqlParameter.of(null)};
+        assertEquals("SELECT * FROM logs WHERE a  is NULL ", template.bind(parameters, params, buffer));
+        assertEquals("SELECT * FROM logs WHERE a  is NULL ", template.bind(parameters, params, buffer));
+        parameters[0] = SqlParameter.of(1);
+        assertEquals("SELECT * FROM logs WHERE a = ?", template.bind(parameters, params, buffer));
+    }
+
+    @Test
+    void dropsQualifiedGroupBy() throws Exception {
+        SqlTemplate template = SqlTemplate.compile("SELECT a FROM logs WHERE b = ? GROUP BY logs.x.a HAVING c > ?");
+        assertEquals(2, template.getParameterCount());
+        SqlParameter[] parameters = {SqlParameter.of(1), SqlParameter.of(2)};
+        assertEquals("SELECT a FROM logs WHERE b = ? ", template.bind(parameters, params, buffer));
+        assertEquals(1, params.size());
+    }
+
+    @Test
+    void rejectsUnboundPlaceholders() {
+        SqlTemplate template = SqlTemplate.compile("SELECT * FROM logs WHERE a = ? AND b = ?");
+        SqlParameter[] parameters = {SqlParameter.of(1), null};
+        SQLException e = assertThrows(SQLException.class, () -> template.bind(parameters, params, buffer));
+        assertEquals("No value specified for parameter 2", e.getMessage());
+    }
+}
@@ -0,0 +1,157 @@
+package gr.uoa.di.madgik.elastic;
+
+import gr.uoa.di.madgik.elastic.sql.ResponseFormat;
+import gr.uoa.di.madgik.elastic.sql.SqlPageEntity;
+import gr.uoa.di.madgik.elastic.sql.SqlResponseDecoder;
+import gr.uoa.di.madgik.elastic.sql.SqlResponseResults;
+import org.apache.http.HttpHost;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
+import org.apache.http.RequestLine;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.message.BasicHttpResponse;
+import org.elasticsearch.client.Cancellable;
+import org.elasticsearch.client.Response;
+import org.elasticsearch.client.ResponseListener;
+
+import java.io.ByteArrayInputStream;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A statement whose cursor pages are answered by the test rather than by a
+ * cluster: every page request is queued as a {@link Fetch}, and the cursors
+ * it closes are recorded.
+ */
+class StubStatement extends JdbcStatement {
+
+    final BlockingQueue<Fetch> fetches = new LinkedBlockingQueue<>();
+    final List<String> closedCursors = new CopyOnWriteArrayList<>();
+
+    StubStatement(JdbcConnection connection) {
+        super(connection);
+    }
+
+    /**
+     * @param properties the connection properties, besides the URL
+     * @return a connection to a node that is never contacted
+     */
+    static JdbcConnection connection(Properties properties) throws Exception {
+        return new JdbcConnection("jdbc:elastic://localhost:1", properties);
+    }
+
+    @Override
+    Cancellable fetchPageAsync(String cursor, SqlResponseDecoder decoder, Deadline deadline, ResponseListener listener) {
+        Fetch fetch = new Fetch(cursor, decoder, listener);
+        fetches.add(fetch);
+        return fetch.cancellable;
+    }
+
+    @Override
+    void closeCursor(String cursor) {
+        closedCursors.add(cursor);
+    }
+
+    /**
+     * @return the next page request, failing if none is issued within a few seconds
+     */
+    Fetch nextFetch() throws InterruptedException {
+        Fetch fetch = fetches.poll(5, TimeUnit.SECONDS);
+        if (fetch == null) {
+            throw new AssertionError("no page was requested");
+        }
+        return fetch;
+    }
+
+    /**
+     * A page request, answered with {@link #respond(int, int, String)}.
+     */
+    static class Fetch {
+
+        final String cursor;
+        final HttpRequestBase request = new HttpPost("/_sql");
+        private final SqlResponseDecoder decoder;
+        private final ResponseListener listener;
+        private final Cancellable cancellable;
+
+        Fetch(String cursor, SqlResponseDecoder decoder, ResponseListener listener) {
+            this.cursor = cursor;
+            this.decoder = decoder;
+            this.listener = listener;
+            this.cancellable = cancellable(request);
+        }
+
+        boolean isCancelled() {
+            return request.isAborted();
+        }
+
+        /**
+         * Answers with rows numbered from {@code first}, decoded as the
+         * client decodes a streamed page.
+         *
+         * @param next the cursor of the next page, null for the last page
+         */
+        void respond(int first, int rows, String next) throws Exception {
+            listener.onSuccess(response(page(decoder, first, rows, next)));
+        }
+
+        void fail(Exception exception) {
+            listener.onFailure(exception);
+        }
+    }
+
+    /**
+     * @return a page of a single long column, holding the numbers from {@code first}
+     */
+    static SqlResponseResults page(SqlResponseDecoder decoder, int first, int rows, String next) throws Exception {
+        StringBuilder body = new StringBuilder("{\"columns\":[{\"name\":\"id\",\"type\":\"long\"}],\"rows\":[");
+        for (int row = 0; row < rows; row++) {
+            body.append(row == 0 ? "[" : ",[").append(first + row).append(']');
+        }
+        body.append(']');
+        if (next != null) {
+            body.append(",\"cursor\":\"").append(next).append('"');
+        }
+        body.append('}');
+        return decoder.decode(new ByteArrayInputStream(body.toString().getBytes(StandardCharsets.UTF_8)), ResponseFormat.JSON);
+    }
+
+    /**
+     * @return a result set whose first page holds the numbers from 0, the
+     *         following pages are fetched on demand through this statement
+     */
+    JdbcResultSet resultSet(int rows, String next) throws Exception {
+        SqlResponseDecoder decoder = new SqlResponseDecoder();
+        return new JdbcResultSet(this, decoder, response(page(decoder, 0, rows, next)), 0);
+    }
+
+    private static Response response(SqlResponseResults page) throws Exception {
+        HttpResponse http = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+        http.setEntity(new SqlPageEntity(page, ContentType.APPLICATION_JSON));
+        Constructor<Response> constructor = Response.class.getDeclaredConstructor(RequestLine.class, HttpHost.class, HttpResponse.class);
+        constructor.setAccessible(true);
+        return constructor.newInstance(new HttpPost("/_sql").getRequestLine(), new HttpHost("localhost", 1), http);
+    }
+
+    /**
+     * @return the cancellable the client returns for a request, aborting it when cancelled
+     */
+    private static Cancellable cancellable(HttpRequestBase request) {
+        try {
+            Method fromRequest = Cancellable.class.getDeclaredMethod("fromRequest", HttpRequestBase.class);
+            fromRequest.setAccessible(true);
+            return (Cancellable) fromRequest.invoke(null, request);
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.sql.Date;
+import java.sql.Time;
+import java.time.LocalDate;
+import java.util.TimeZone;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class ColumnDecoderTest {
+
+    private TimeZone defaultZone;
+
+    /**
+     * Runs every test west of UTC, where taking the day of a date in the
+     * default time zone moves it to the previous day.
+     */
+    @BeforeEach
+    void setUp() {
+        defaultZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("America/New_York"));
+    }
+
+    @AfterEach
+    void tearDown() {
+        TimeZone.setDefault(defaultZone);
+    }
+
+    @Test
+    void datesAreTakenInUtc() throws Exception {
+        ColumnDecoder decoder = ColumnDecoder.forType("date");
+        assertEquals(Date.valueOf("2020-01-01"), decoder.getDate("2020-01-01T00:00:00.000Z"));
+        assertEquals(Date.valueOf("1969-12-31"), decoder.getDate("1969-12-31T00:00:00Z"));
+        assertEquals(Date.valueOf("2020-01-01"), decoder.getDate("2020-01-01"));
+        assertEquals(Date.valueOf("2020-01-01"), decoder.getDate(1577836800000L));
+        assertEquals(LocalDate.of(2020, 1, 1), decoder.getObject("2020-01-01T00:00:00.000Z", LocalDate.class));
+    }
+
+    @Test
+    void timesAreTakenInUtc() throws Exception {
+        ColumnDecoder decoder = ColumnDecoder.forType("datetime");
+        assertEquals(Time.valueOf("10:15:30"), decoder.getTime("2020-01-01T10:15:30.000Z"));
+        assertEquals(Time.valueOf("10:15:30"), decoder.getTime(1577873730000L));
+        assertEquals(Time.valueOf("10:15:30"), ColumnDecoder.forType("time").getTime("10:15:30Z"));
+    }
+
+    @Test
+    void vectorsTakeTheDayInUtc() throws Exception {
+        ColumnVector vector = ColumnDecoder.forType("date").newVector(2);
+        vector.appendValue("2020-01-01T00:00:00.000Z");
+        vector.appendNull();
+        assertEquals(LocalDate.of(2020, 1, 1), vector.getLocalDate(0));
+        assertEquals(Date.valueOf("2020-01-01"), vector.getDate(0));
+        assertNull(vector.getLocalDate(1));
+    }
+}
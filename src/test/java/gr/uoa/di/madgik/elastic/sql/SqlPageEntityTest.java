@@ -0,0 +1,33 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import org.apache.http.entity.ContentType;
+import org.apache.http.util.EntityUtils;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SqlPageEntityTest {
+
+    /**
+     * The request tracer of the client reads the entity of every response
+     * it logs, and replaces entities that are not repeatable with a buffered
+     * copy, which would hide the decoded page.
+     */
+    @Test
+    void readsAsADescriptionOfThePage() throws Exception {
+        SqlResponseResults page = new SqlResponseResults().setRowCount(3);
+        SqlPageEntity entity = new SqlPageEntity(page, ContentType.APPLICATION_JSON);
+        assertTrue(entity.isRepeatable());
+        assertEquals("[3 rows decoded while streaming]", EntityUtils.toString(entity));
+        assertEquals("[3 rows decoded while streaming]", EntityUtils.toString(entity));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        entity.writeTo(out);
+        assertEquals(entity.getContentLength(), out.size());
+        assertEquals("[3 rows decoded while streaming]", new String(out.toByteArray(), StandardCharsets.US_ASCII));
+        assertEquals(page, entity.getPage());
+    }
+}
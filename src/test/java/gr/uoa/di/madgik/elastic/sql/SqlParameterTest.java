@@ -0,0 +1,111 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import org.junit.jupiter.api.Test;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.LocalTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SqlParameterTest {
+
+    private static void assertParameter(String type, Object value, SqlParameter parameter) {
+        assertEquals(type, parameter.getType());
+        assertEquals(value, parameter.getValue());
+    }
+
+    @Test
+    void typesByJavaClass() {
+        assertParameter("keyword", "a", SqlParameter.of("a"));
+        assertParameter("integer", 1, SqlParameter.of(1));
+        assertParameter("long", 1L, SqlParameter.of(1L));
+        assertParameter("date", "2020-01-02", SqlParameter.of(LocalDate.of(2020, 1, 2)));
+        assertParameter("datetime", "2020-01-02T10:15:30Z",
+                SqlParameter.of(Timestamp.from(Instant.parse("2020-01-02T10:15:30Z"))));
+        assertParameter("null", null, SqlParameter.of(null));
+    }
+
+    @Test
+    void convertsToNumericTypes() throws Exception {
+        assertParameter("integer", 42, SqlParameter.of("42", Types.INTEGER));
+        assertParameter("integer", 42, SqlParameter.of(42.0, Types.INTEGER));
+        assertParameter("long", 1L, SqlParameter.of(true, Types.BIGINT));
+        assertParameter("short", (short) 7, SqlParameter.of(7L, Types.SMALLINT));
+        assertParameter("byte", (byte) -3, SqlParameter.of(" -3 ", Types.TINYINT));
+        assertParameter("double", 1.5, SqlParameter.of("1.5", Types.DOUBLE));
+        assertParameter("double", 0.1, SqlParameter.of(0.1f, Types.DOUBLE));
+        assertParameter("double", Double.NaN, SqlParameter.of(Double.NaN, Types.DOUBLE));
+        assertParameter("float", 2.5f, SqlParameter.of(2.5, Types.REAL));
+        assertParameter("double", new BigDecimal("12.30"), SqlParameter.of("12.30", Types.DECIMAL));
+    }
+
+    @Test
+    void rejectsValuesNotFittingNumericTypes() {
+        assertThrows(SQLException.class, () -> SqlParameter.of("abc", Types.INTEGER));
+        assertThrows(SQLException.class, () -> SqlParameter.of(42.5, Types.INTEGER));
+        assertThrows(SQLException.class, () -> SqlParameter.of(300, Types.TINYINT));
+        assertThrows(SQLException.class, () -> SqlParameter.of(Long.MAX_VALUE, Types.INTEGER));
+        assertThrows(SQLException.class, () -> SqlParameter.of(LocalDate.now(), Types.DOUBLE));
+    }
+
+    @Test
+    void convertsToBoolean() throws Exception {
+        assertParameter("boolean", true, SqlParameter.of("true", Types.BIT));
+        assertParameter("boolean", false, SqlParameter.of(0, Types.BOOLEAN));
+        assertParameter("boolean", true, SqlParameter.of(" 1", Types.BOOLEAN));
+        assertThrows(SQLException.class, () -> SqlParameter.of("yes", Types.BOOLEAN));
+    }
+
+    @Test
+    void convertsToStrings() throws Exception {
+        assertParameter("keyword", "42", SqlParameter.of(42, Types.VARCHAR));
+        assertParameter("keyword", "2020-01-02T10:15:30Z",
+                SqlParameter.of(Timestamp.from(Instant.parse("2020-01-02T10:15:30Z")), Types.CHAR));
+    }
+
+    @Test
+    void convertsToTemporalTypes() throws Exception {
+        Timestamp timestamp = Timestamp.from(Instant.parse("2020-01-02T23:15:30Z"));
+        assertParameter("date", "2020-01-02", SqlParameter.of(timestamp, Types.DATE));
+        assertParameter("date", "2020-01-02", SqlParameter.of("2020-01-02", Types.DATE));
+        assertParameter("date", "2020-01-02", SqlParameter.of("2020-01-02T10:15:30", Types.DATE));
+        assertParameter("time", "23:15:30", SqlParameter.of(timestamp, Types.TIME));
+        assertParameter("time", "10:15:30", SqlParameter.of(Time.valueOf("10:15:30"), Types.TIME));
+        assertParameter("time", "10:15:30", SqlParameter.of("10:15:30", Types.TIME));
+        assertParameter("datetime", "2020-01-02T23:15:30Z", SqlParameter.of(timestamp, Types.TIMESTAMP));
+        assertParameter("datetime", "2020-01-02T00:00", SqlParameter.of(LocalDate.of(2020, 1, 2), Types.TIMESTAMP));
+        assertParameter("datetime", "2020-01-02T10:15:30", SqlParameter.of("2020-01-02 10:15:30", Types.TIMESTAMP));
+        assertParameter("datetime", "2020-01-02T10:15:30+02:00",
+                SqlParameter.of("2020-01-02T10:15:30+02:00", Types.TIMESTAMP_WITH_TIMEZONE));
+    }
+
+    @Test
+    void rejectsValuesNotFittingTemporalTypes() {
+        assertThrows(SQLException.class, () -> SqlParameter.of("yesterday", Types.DATE));
+        assertThrows(SQLException.class, () -> SqlParameter.of(Time.valueOf("10:15:30"), Types.DATE));
+        assertThrows(SQLException.class, () -> SqlParameter.of(LocalTime.NOON, Types.TIMESTAMP));
+        assertThrows(SQLException.class, () -> SqlParameter.of(42, Types.TIME));
+    }
+
+    @Test
+    void keepsTheTypeOfNulls() throws Exception {
+        assertParameter("integer", null, SqlParameter.of(null, Types.INTEGER));
+        assertParameter("datetime", null, SqlParameter.of(null, Types.TIMESTAMP));
+        assertParameter("null", null, SqlParameter.of(null, Types.OTHER));
+    }
+
+    @Test
+    void keepsValuesOfOtherTypes() throws Exception {
+        SqlParameter parameter = SqlParameter.of(3, Types.JAVA_OBJECT);
+        assertParameter("integer", 3, parameter);
+        assertNull(SqlParameter.of(null, Types.NULL).getValue());
+    }
+}
@@ -0,0 +1,88 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SqlResponseDecoderTest {
+
+    private static final List<Map<String, String>> COLUMNS = Arrays.asList(
+            column("f", "float"), column("h", "half_float"), column("d", "double"), column("o", "object"));
+
+    private static Map<String, String> column(String name, String type) {
+        Map<String, String> column = new LinkedHashMap<>();
+        column.put("name", name);
+        column.put("type", type);
+        return column;
+    }
+
+    /**
+     * A page of float columns, holding the values as {@link Float}s so that
+     * the binary formats write them as 32-bit floats, as Elasticsearch does.
+     */
+    private static Map<String, Object> page(boolean columnar) {
+        Object[][] rows = {
+                {0.1f, 0.1f, 0.1, Arrays.asList(0.1f, 2.5f)},
+                {3.3f, 1.7f, 3.3, null},
+                {null, -0.3f, null, 7.9f},
+        };
+        Map<String, Object> page = new LinkedHashMap<>();
+        page.put("columns", COLUMNS);
+        if (columnar) {
+            Object[][] values = new Object[COLUMNS.size()][rows.length];
+            for (int row = 0; row < rows.length; row++) {
+                for (int column = 0; column < COLUMNS.size(); column++) {
+                    values[column][row] = rows[row][column];
+                }
+            }
+            page.put("values", values);
+        } else {
+            page.put("rows", rows);
+        }
+        return page;
+    }
+
+    private static SqlResponseResults decode(ObjectMapper mapper, ResponseFormat format, boolean columnar) throws Exception {
+        byte[] body = mapper.writeValueAsBytes(page(columnar));
+        return new SqlResponseDecoder().decode(new ByteArrayInputStream(body), format);
+    }
+
+    @Test
+    void floatsDecodeTheSameFromEveryFormat() throws Exception {
+        for (boolean columnar : new boolean[]{false, true}) {
+            SqlResponseResults json = decode(new ObjectMapper(), ResponseFormat.JSON, columnar);
+            SqlResponseResults smile = decode(new ObjectMapper(new SmileFactory()), ResponseFormat.SMILE, columnar);
+            SqlResponseResults cbor = decode(new ObjectMapper(new CBORFactory()), ResponseFormat.CBOR, columnar);
+            assertEquals(3, json.getRowCount());
+            for (SqlResponseResults binary : Arrays.asList(smile, cbor)) {
+                assertEquals(json.getRowCount(), binary.getRowCount());
+                for (int column = 0; column < COLUMNS.size(); column++) {
+                    ColumnVector expected = json.getVectors()[column];
+                    ColumnVector actual = binary.getVectors()[column];
+                    for (int row = 0; row < json.getRowCount(); row++) {
+                        assertEquals(expected.isNull(row), actual.isNull(row));
+                        assertEquals(expected.getObject(row), actual.getObject(row));
+                        assertEquals(expected.getString(row), actual.getString(row));
+                        if (!expected.isNull(row) && column < 3) {
+                            assertEquals(expected.getDouble(row), actual.getDouble(row));
+                            assertEquals(expected.getBigDecimal(row), actual.getBigDecimal(row));
+                        }
+                    }
+                }
+            }
+            assertEquals(0.1, smile.getVectors()[0].getDouble(0));
+            assertEquals(new BigDecimal("0.1"), smile.getVectors()[1].getBigDecimal(0));
+            assertEquals(Arrays.asList(0.1, 2.5), smile.getVectors()[3].getObject(0));
+        }
+    }
+}
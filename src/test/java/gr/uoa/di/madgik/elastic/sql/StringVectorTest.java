@@ -0,0 +1,149 @@
+package gr.uoa.di.madgik.elastic.sql;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class StringVectorTest {
+
+    private static final JsonFactory factory = new JsonFactory();
+
+    private static StringVector vector(int capacity) {
+        return (StringVector) ColumnDecoder.forType("keyword").newVector(capacity);
+    }
+
+    /**
+     * Appends the values as they are received, strings or nulls.
+     */
+    private static void append(StringVector vector, List<String> values) throws Exception {
+        StringBuilder json = new StringBuilder("[");
+        for (String value : values) {
+            json.append(json.length() == 1 ? "" : ",").append(value == null ? "null" : '"' + value + '"');
+        }
+        try (JsonParser parser = factory.createParser(json.append(']').toString())) {
+            parser.nextToken();
+            for (JsonToken token = parser.nextToken(); token != JsonToken.END_ARRAY; token = parser.nextToken()) {
+                vector.append(parser, token);
+            }
+        }
+    }
+
+    private static void assertValues(List<?> expected, StringVector vector) {
+        assertEquals(expected.size(), vector.size());
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(expected.get(row), vector.getObject(row), "row " + row);
+            assertEquals(expected.get(row) == null, vector.isNull(row), "row " + row);
+        }
+    }
+
+    @Test
+    void keepsLowCardinalityColumnsDictionaryEncoded() throws Exception {
+        List<String> values = new ArrayList<>();
+        for (int row = 0; row < 1000; row++) {
+            values.add(row % 5 == 4 ? null : "level-" + row % 4);
+        }
+        StringVector vector = vector(16);
+        append(vector, values);
+        assertTrue(vector.isDictionaryEncoded());
+        assertEquals(4, vector.dictionarySize());
+        assertValues(values, vector);
+        assertEquals("level-1", vector.dictionary()[vector.codes()[1]]);
+    }
+
+    @Test
+    void switchesToOffsetsOnceTheDictionaryOutgrowsTheRows() throws Exception {
+        List<String> values = new ArrayList<>();
+        for (int row = 0; row < 64; row++) {
+            values.add("v" + row);
+        }
+        StringVector vector = vector(16);
+        append(vector, values);
+        assertTrue(vector.isDictionaryEncoded());
+        assertEquals(64, vector.dictionarySize());
+
+        append(vector, Arrays.asList("v64"));
+        values.add("v64");
+        assertFalse(vector.isDictionaryEncoded());
+        assertEquals(0, vector.dictionarySize());
+        assertValues(values, vector);
+    }
+
+    @Test
+    void keepsNullsAndOtherValuesAcrossTheSwitch() throws Exception {
+        StringVector vector = vector(4);
+        List<Object> expected = new ArrayList<>();
+        for (int row = 0; row < 300; row++) {
+            if (row % 7 == 3) {
+                append(vector, Arrays.asList((String) null));
+                expected.add(null);
+            } else if (row % 11 == 5) {
+                List<Integer> array = Arrays.asList(row, row + 1);
+                vector.appendValue(array);
+                expected.add(array);
+            } else {
+                // repeated values before the switch, empty strings on both sides of it
+                String value = row < 40 ? "a" + row % 3 : row % 13 == 0 ? "" : "value-" + row;
+                append(vector, Arrays.asList(value));
+                expected.add(value);
+            }
+        }
+        assertFalse(vector.isDictionaryEncoded());
+        assertEquals(expected.size(), vector.size());
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(expected.get(row), vector.getObject(row), "row " + row);
+        }
+        assertEquals("[93, 94]", vector.getString(93));
+    }
+
+    @Test
+    void growsTheNullBitmapWithTheNulls() throws Exception {
+        StringVector vector = vector(1);
+        append(vector, Arrays.asList(null, "a"));
+        assertEquals(1, vector.nulls().length);
+        List<String> values = new ArrayList<>(Arrays.asList(null, "a"));
+        for (int row = 2; row < 200; row++) {
+            values.add(row % 2 == 0 ? null : "a");
+        }
+        append(vector, values.subList(2, values.size()));
+        assertValues(values, vector);
+        assertEquals(4, vector.nulls().length);
+        for (int row = 0; row < 200; row++) {
+            assertEquals(row % 2 == 0, (vector.nulls()[row >>> 6] & (1L << row)) != 0, "row " + row);
+        }
+    }
+
+    @Test
+    void coversRowsPastTheLastNull() throws Exception {
+        StringVector vector = vector(1);
+        List<String> values = new ArrayList<>();
+        values.add(null);
+        for (int row = 1; row < 150; row++) {
+            values.add("b");
+        }
+        append(vector, values);
+        assertTrue(vector.isNull(0));
+        assertFalse(vector.isNull(149));
+        // the bitmap handed out covers every row, although only the nulls grew it
+        assertEquals(3, vector.nulls().length);
+        assertEquals(1L, vector.nulls()[0]);
+        assertEquals(0L, vector.nulls()[2]);
+    }
+
+    @Test
+    void hasNoBitmapWithoutNulls() throws Exception {
+        StringVector vector = vector(8);
+        append(vector, Arrays.asList("a", "b"));
+        assertFalse(vector.hasNulls());
+        assertNull(vector.nulls());
+    }
+}